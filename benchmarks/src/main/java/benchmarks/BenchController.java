@@ -0,0 +1,24 @@
+package benchmarks;
+
+import annotations.ValidatePara;
+import controllers.BaseController;
+import validators.EmptyStringValidator;
+import validators.IntegerFormatValidator;
+import validators.NullValidator;
+import validators.OptionalIntegerFormatValidator;
+
+/**
+ * Actions shaped like the real ones, minus the validators that need a database.
+ */
+public class BenchController extends BaseController {
+
+    @ValidatePara(value = "commodityId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class})
+    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class})
+    @ValidatePara(value = "limit", validators = {OptionalIntegerFormatValidator.class})
+    public void validated() {
+    }
+
+    public void respond() {
+        successResponse(getAttr("row"));
+    }
+}
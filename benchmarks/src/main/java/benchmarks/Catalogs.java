@@ -0,0 +1,86 @@
+package benchmarks;
+
+import models.Commodity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic rows with the columns and typical value lengths of the real catalog.
+ */
+final class Catalogs {
+
+    private Catalogs() {
+    }
+
+    /**
+     * A row as returned by /commodity/listAll.
+     */
+    static Commodity listRow(int id) {
+        return new Commodity()
+                .put("commodity_id", id)
+                .put("commodity_desc_img", "https://img.example.com/commodity/" + id + ".jpg")
+                .put("commodity_name", "Lipstick No." + id)
+                .put("brand_name", "Brand " + (id % 100))
+                .put("brand_logo", "https://img.example.com/brand/" + (id % 100) + ".png")
+                .put("brand_desc", "A French luxury brand founded in 19" + (id % 100) + ".");
+    }
+
+    /**
+     * A commodity table row as returned by /commodity/detail.
+     */
+    static Commodity detailRow(int id) {
+        return new Commodity()
+                .put("id", id)
+                .put("name", "Lipstick No." + id)
+                .put("desc", "A long lasting matte lipstick, shade number " + id + ".")
+                .put("desc_img", "https://img.example.com/commodity/" + id + ".jpg")
+                .put("model_url", "https://models.example.com/" + id + ".obj")
+                .put("shop_url", "https://shop.example.com/item/" + id)
+                .put("category_id", id % 5)
+                .put("brand_id", id % 100)
+                .put("tp_shop_id", 1);
+    }
+
+    private static final String[] BRANDS = {"Chanel", "Dior", "Lancome", "Estee Lauder", "Maybelline", "Clinique",
+            "Shiseido", "Guerlain", "Nars", "Armani", "Givenchy", "Bobbi Brown", "Yves Saint Laurent", "Sephora",
+            "Fenty", "Charlotte Tilbury", "Tom Ford", "Benefit", "Urban Decay", "MAC"};
+    private static final String[] PRODUCTS = {"Lipstick", "Lip Gloss", "Lip Liner", "Foundation", "Concealer",
+            "Mascara", "Eyeliner", "Eyeshadow Palette", "Blush", "Bronzer", "Highlighter", "Primer", "Setting Spray",
+            "Nail Polish", "Brow Pencil"};
+    private static final String[] FINISHES = {"Matte", "Satin", "Velvet", "Glossy", "Sheer", "Shimmer", "Cream",
+            "Liquid", "Powder", "Long Wear"};
+    private static final String[] SHADES = {"Rouge", "Nude", "Coral", "Berry", "Rose", "Plum", "Cherry", "Peach",
+            "Mocha", "Ruby", "Scarlet", "Ivory", "Sand", "Honey", "Cocoa"};
+
+    /**
+     * A listing row with a varied name and brand, like "Dior Matte Lipstick Berry 417", for search.
+     */
+    static Commodity searchRow(int id) {
+        String brand = BRANDS[id % BRANDS.length];
+        return new Commodity()
+                .put("commodity_id", id)
+                .put("commodity_desc_img", "https://img.example.com/commodity/" + id + ".jpg")
+                .put("commodity_name", FINISHES[(id / 7) % FINISHES.length] + " " + PRODUCTS[(id / 3) % PRODUCTS.length]
+                        + " " + SHADES[(id / 11) % SHADES.length] + " " + id)
+                .put("brand_name", brand)
+                .put("brand_logo", "https://img.example.com/brand/" + (id % BRANDS.length) + ".png")
+                .put("brand_desc", brand + " is a luxury beauty house founded in 19" + (id % BRANDS.length + 10) + ".");
+    }
+
+    static List<Commodity> searchRows(int count) {
+        List<Commodity> rows = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            rows.add(searchRow(i));
+        }
+        return rows;
+    }
+
+    static List<Commodity> listRows(int count) {
+        List<Commodity> rows = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            rows.add(listRow(i));
+        }
+        return rows;
+    }
+}
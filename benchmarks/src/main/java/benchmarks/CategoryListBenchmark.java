@@ -0,0 +1,152 @@
+package benchmarks;
+
+import com.alibaba.druid.filter.FilterEventAdapter;
+import com.alibaba.druid.proxy.jdbc.StatementProxy;
+import com.jfinal.plugin.activerecord.ActiveRecordPlugin;
+import com.jfinal.plugin.activerecord.Db;
+import com.jfinal.plugin.druid.DruidPlugin;
+import controllers.CommodityController;
+import models.Brand;
+import models.Category;
+import models.Commodity;
+import org.openjdk.jmh.annotations.*;
+import plugins.CatalogSnapshot;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A page of /commodity/list on an in-memory H2 database in MySQL mode, each statement paying a simulated
+ * network round trip. threeTrips is the path before the catalog cache: the validator looks the category up,
+ * the action reads its id, then lists by id. catalogMiss is the path of a category created since the last
+ * catalog refresh, the validator's lookup and one listing statement filtering on the name; snapshot the
+ * path of every other category, served from the catalog without a statement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CategoryListBenchmark {
+    private static final int BRANDS = 40;
+    private static final int CATEGORIES = 20;
+    private static final int COMMODITIES = 20000;
+    private static final int LIMIT = 50;
+    private static final String CATEGORY = "category-7";
+    private static final String LIST_BY_CATEGORY_ID_SQL = "select c.id AS commodity_id, " +
+            "c.desc_img AS commodity_desc_img, " +
+            "c.name AS commodity_name, " +
+            "b.name AS brand_name, " +
+            "b.logo AS brand_logo, " +
+            "b.desc AS brand_desc " +
+            "from commodity c inner join brand b on c.brand_id=b.id " +
+            "where c.category_id = ? and c.id > ? " +
+            "order by c.id " +
+            "limit ?";
+
+    /**
+     * Simulated round trip per statement, 0 for H2 alone.
+     */
+    @Param({"0", "200", "1000"})
+    public long roundTripMicros;
+
+    private DruidPlugin druid;
+    private ActiveRecordPlugin arp;
+    private CatalogSnapshot catalog;
+
+    @Setup
+    public void setup() throws SQLException {
+        druid = new DruidPlugin("jdbc:h2:mem:bench;MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE", "sa", "");
+        druid.addFilter(new RoundTripFilter(roundTripMicros * 1000));
+        druid.start();
+        arp = new ActiveRecordPlugin(druid);
+        arp.addMapping("brand", Brand.class);
+        arp.addMapping("category", Category.class);
+        arp.addMapping("commodity", Commodity.class);
+        createTables(druid.getDataSource());
+        arp.start();
+        catalog = CatalogSnapshot.load();
+    }
+
+    private static void createTables(DataSource dataSource) throws SQLException {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("create table brand (id int primary key, name varchar(255), logo varchar(255), `desc` varchar(1024))");
+            st.execute("create table category (id int primary key, name varchar(255) not null unique)");
+            st.execute("create table commodity (id int primary key, name varchar(255), desc_img varchar(255), " +
+                    "brand_id int, category_id int)");
+            st.execute("create index commodity_category on commodity(category_id, id)");
+            for (int i = 1; i <= BRANDS; i++) {
+                st.addBatch("insert into brand values (" + i + ", 'Brand" + i + "', 'https://img.example.com/brand/" + i
+                        + ".png', 'Brand" + i + " is a luxury beauty house.')");
+            }
+            for (int i = 1; i <= CATEGORIES; i++) {
+                st.addBatch("insert into category values (" + i + ", 'category-" + i + "')");
+            }
+            for (int i = 1; i <= COMMODITIES; i++) {
+                st.addBatch("insert into commodity values (" + i + ", 'Commodity " + i + "', 'https://img.example.com/commodity/"
+                        + i + ".jpg', " + (i % BRANDS + 1) + ", " + (i % CATEGORIES + 1) + ")");
+            }
+            st.executeBatch();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Db.update("drop all objects");
+        arp.stop();
+        druid.stop();
+    }
+
+    @Benchmark
+    public List<Commodity> threeTrips() {
+        Category.dao.findFirst("select id from category where name = ?", CATEGORY);
+        int categoryId = Category.dao.findFirst("select * from category where name = ?", CATEGORY).getInt("id");
+        return Commodity.dao.find(LIST_BY_CATEGORY_ID_SQL, categoryId, 0, LIMIT + 1);
+    }
+
+    @Benchmark
+    public List<Commodity> catalogMiss() {
+        Category.dao.findFirst("select id from category where name = ?", CATEGORY);
+        return Commodity.dao.find(CommodityController.LIST_BY_CATEGORY_NAME_SQL, CATEGORY, 0, LIMIT + 1);
+    }
+
+    @Benchmark
+    public List<Commodity> snapshot() {
+        List<Commodity> rows = catalog.getListRows(catalog.getCategoryId(CATEGORY));
+        int from = CatalogSnapshot.indexAfter(rows, 0);
+        return rows.subList(from, Math.min(rows.size(), from + LIMIT));
+    }
+
+    /**
+     * Waits for the round trip before every statement, without holding the CPU like a network wait.
+     */
+    static final class RoundTripFilter extends FilterEventAdapter {
+        private final long nanos;
+
+        RoundTripFilter(long nanos) {
+            this.nanos = nanos;
+        }
+
+        private void roundTrip() {
+            if (nanos > 0) {
+                LockSupport.parkNanos(nanos);
+            }
+        }
+
+        @Override
+        protected void statementExecuteBefore(StatementProxy statement, String sql) {
+            roundTrip();
+        }
+
+        @Override
+        protected void statementExecuteQueryBefore(StatementProxy statement, String sql) {
+            roundTrip();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import com.jfinal.kit.JsonKit;
+import kit.SyntheticHttp;
+import models.Commodity;
+import org.openjdk.jmh.annotations.*;
+import renders.JsonStream;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing listing rows inside the {code, data} envelope, as one string like renderJson does and
+ * element by element like {@link JsonStream}, at catalog sizes from 10 to 100k rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModelJsonBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int rows;
+
+    private List<Commodity> catalog;
+
+    @Setup
+    public void setup() {
+        catalog = Catalogs.listRows(rows);
+    }
+
+    @Benchmark
+    public int renderJsonString() {
+        Map<String, Object> envelope = new HashMap<>();
+        envelope.put("code", 0);
+        envelope.put("data", catalog);
+        return JsonKit.toJson(envelope).length();
+    }
+
+    @Benchmark
+    public long jsonStream() throws IOException {
+        SyntheticHttp.NullWriter out = new SyntheticHttp.NullWriter();
+        out.write("{\"code\":0,\"data\":");
+        JsonStream.of(catalog).writeTo(out);
+        out.write('}');
+        return out.chars;
+    }
+}
@@ -0,0 +1,46 @@
+package benchmarks;
+
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.core.Action;
+import interceptors.ResponseInterceptor;
+import kit.SyntheticHttp;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BaseController.successResponse, ResponseInterceptor and the envelope render for a single detail row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseEnvelopeBenchmark {
+    private BenchController controller;
+    private Action action;
+    private SyntheticHttp.NullWriter body;
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        body = new SyntheticHttp.NullWriter();
+        controller = new BenchController();
+        controller.setHttpServletRequest(SyntheticHttp.request("GET", Collections.emptyMap()));
+        controller.setHttpServletResponse(SyntheticHttp.response(body));
+        controller.setAttr("row", Catalogs.detailRow(1));
+        Method method = BenchController.class.getMethod("respond");
+        action = new Action("/bench", "/bench/respond", BenchController.class, method, "respond",
+                new Interceptor[]{new ResponseInterceptor()}, "/bench/");
+    }
+
+    @Benchmark
+    public long detailEnvelope() {
+        new Invocation(action, controller).invoke();
+        controller.getRender().setContext(controller.getRequest(), controller.getResponse()).render();
+        return body.chars;
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import models.Commodity;
+import org.openjdk.jmh.annotations.*;
+import plugins.SearchIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /commodity/search over 100k synthetic commodities: typeahead prefixes, multi-word and selective
+ * queries, a query matching nothing, and the cost of a full build versus updating the index after 1%
+ * of the catalog changed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchIndexBenchmark {
+    private static final int COMMODITIES = 100000;
+    private static final int LIMIT = 50;
+
+    private List<Commodity> rows;
+    private List<Commodity> changedRows;
+    private SearchIndex index;
+
+    @Setup
+    public void setup() {
+        rows = Catalogs.searchRows(COMMODITIES);
+        changedRows = new ArrayList<>(rows);
+        for (int i = 0; i < COMMODITIES; i += 100) {
+            Commodity renamed = new Commodity().put(rows.get(i));
+            renamed.put("commodity_name", "Limited Edition " + renamed.getStr("commodity_name"));
+            changedRows.set(i, renamed);
+        }
+        index = SearchIndex.EMPTY.update(rows);
+    }
+
+    @Benchmark
+    public List<Commodity> typeaheadShortPrefix() {
+        return index.search("li", LIMIT);
+    }
+
+    @Benchmark
+    public List<Commodity> typeaheadWord() {
+        return index.search("lipst", LIMIT);
+    }
+
+    @Benchmark
+    public List<Commodity> brandAndProduct() {
+        return index.search("dior matte lipstick", LIMIT);
+    }
+
+    @Benchmark
+    public List<Commodity> selective() {
+        return index.search("nars velvet plum", LIMIT);
+    }
+
+    @Benchmark
+    public List<Commodity> noMatch() {
+        return index.search("sunscreen", LIMIT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public SearchIndex fullBuild() {
+        return SearchIndex.EMPTY.update(rows);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public SearchIndex incrementalUpdate() {
+        return index.update(changedRows);
+    }
+}
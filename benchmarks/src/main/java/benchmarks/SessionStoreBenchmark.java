@@ -0,0 +1,69 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import plugins.SessionStore;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session lookups by 8 threads against 100k live sessions, with SessionStore and with an access ordered
+ * map behind one lock, and lookups while another thread keeps logging users in.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionStoreBenchmark {
+    private static final int SESSIONS = 100000;
+
+    private SessionStore store;
+    private Map<String, Integer> singleLock;
+    private String[] tokens;
+
+    @Setup
+    public void setup() {
+        store = new SessionStore(SESSIONS * 2, 3600);
+        singleLock = Collections.synchronizedMap(new LinkedHashMap<>(SESSIONS * 2, 0.75f, true));
+        tokens = new String[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            tokens[i] = store.create(i);
+            singleLock.put(tokens[i], i);
+        }
+    }
+
+    private String randomToken() {
+        return tokens[ThreadLocalRandom.current().nextInt(SESSIONS)];
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer sessionStore() {
+        return store.getUserId(randomToken());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer singleLock() {
+        return singleLock.get(randomToken());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public Integer mixedLookup() {
+        return store.getUserId(randomToken());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public String mixedLogin() {
+        return store.create(ThreadLocalRandom.current().nextInt(SESSIONS));
+    }
+}
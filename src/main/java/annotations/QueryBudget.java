@@ -0,0 +1,14 @@
+package annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * Maximum number of SQL statements an action may execute, validators included.
+ * Checked by {@link interceptors.QueryBudgetInterceptor}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface QueryBudget {
+    int value();
+}
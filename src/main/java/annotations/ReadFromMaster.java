@@ -0,0 +1,14 @@
+package annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * Keeps a read-only action on master. For actions that authenticate a user, where a replica lagging
+ * behind a password change or a new account would reject or accept the wrong credentials.
+ * Checked by {@link interceptors.ReadReplicaInterceptor}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReadFromMaster {
+}
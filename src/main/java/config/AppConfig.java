@@ -1,21 +1,47 @@
 package config;
 
+import controllers.AdminController;
 import controllers.CommodityController;
+import controllers.HealthController;
+import controllers.MetricsController;
+import filters.SlowQueryFilter;
+import interceptors.ConditionalGetInterceptor;
+import interceptors.MetricsInterceptor;
 import interceptors.ParaValidateInterceptor;
+import interceptors.QueryBudgetInterceptor;
+import interceptors.ReadReplicaInterceptor;
 import interceptors.ResponseInterceptor;
 import models.*;
+import plugins.CatalogCache;
+import plugins.CoViewEngine;
+import plugins.ExistenceIndex;
+import plugins.FavoritesCache;
+import plugins.PoolWarmer;
+import plugins.ReplicaRouter;
+import plugins.SessionStore;
+import plugins.TrendingBoard;
+import plugins.ViewingHistoryWriter;
 import com.jfinal.config.*;
 import com.jfinal.core.JFinal;
+import com.jfinal.kit.Prop;
 import com.jfinal.kit.PropKit;
 import com.jfinal.plugin.activerecord.ActiveRecordPlugin;
+import com.jfinal.plugin.activerecord.DbKit;
 import com.jfinal.plugin.druid.DruidPlugin;
 import com.jfinal.template.Engine;
 import controllers.UserController;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
 /**
  * @author Jieying Xu
  */
 public class AppConfig extends JFinalConfig {
+    private final ParaValidateInterceptor paraValidateInterceptor = new ParaValidateInterceptor();
 
     public static void main(String[] args) {
         // Launching under IDEA environment
@@ -25,12 +51,16 @@ public class AppConfig extends JFinalConfig {
     @Override
     public void configConstant(Constants me) {
         me.setDevMode(true);
+        PropKit.use("app.properties");
     }
 
     @Override
     public void configRoute(Routes me) {
         me.add("/user", UserController.class);
         me.add("/commodity", CommodityController.class);
+        me.add("/admin", AdminController.class);
+        me.add("/metrics", MetricsController.class);
+        me.add("/health", HealthController.class);
     }
 
     @Override
@@ -39,7 +69,15 @@ public class AppConfig extends JFinalConfig {
     @Override
     public void configPlugin(Plugins me) {
         DataSourceLoader dsl = new DataSourceLoader();
-        DruidPlugin dp = dsl.loadDataSourceUsingDruid(PropKit.use("datasource.properties").getProperties(), "master");
+        Properties dataSources = PropKit.use("datasource.properties").getProperties();
+        DruidPlugin dp = dsl.loadDataSourceUsingDruid(dataSources, "master");
+        Prop app = PropKit.use("app.properties");
+        SlowQueryFilter slowQueryFilter = new SlowQueryFilter(
+                app.getLong("slow_query.threshold_ms", 200L),
+                app.getInt("slow_query.buffer_size", 256),
+                app.getInt("slow_query.max_shapes", 500),
+                app.getBoolean("slow_query.explain", true));
+        dp.addFilter(slowQueryFilter);
         me.add(dp);
 
         ActiveRecordPlugin arp = new ActiveRecordPlugin(dp);
@@ -52,14 +90,63 @@ public class AppConfig extends JFinalConfig {
         arp.addMapping("tp_shop", TpShop.class);
         arp.addMapping("tp_user", TpUser.class);
         arp.addMapping("viewing_history", ViewingHistory.class);
+
+        // read-only actions go to the replicas, see ReadReplicaInterceptor; models stay mapped to master
+        List<String> replicaConfigs = new ArrayList<>();
+        for (Map.Entry<String, DruidPlugin> e: dsl.loadReplicasUsingDruid(dataSources).entrySet()) {
+            e.getValue().addFilter(slowQueryFilter);
+            me.add(e.getValue());
+            me.add(new ActiveRecordPlugin(e.getKey(), e.getValue()));
+            replicaConfigs.add(e.getKey());
+        }
+        List<String> hotStatements = new ArrayList<>(Arrays.asList(UserController.HOT_STATEMENTS));
+        hotStatements.addAll(Arrays.asList(CommodityController.HOT_STATEMENTS));
+        List<String> pools = new ArrayList<>(replicaConfigs);
+        pools.add(0, DbKit.MAIN_CONFIG_NAME);
+        me.add(new PoolWarmer(pools, hotStatements, Arrays.asList(User.class, Commodity.class)));
+        if (!replicaConfigs.isEmpty()) {
+            me.add(new ReplicaRouter(replicaConfigs, app.getLong("replica.health_check_interval_sec", 10L)));
+        }
+
+        me.add(new ViewingHistoryWriter(
+                app.getInt("viewing_writer.capacity", 10000),
+                app.getInt("viewing_writer.batch_size", 200),
+                app.getLong("viewing_writer.flush_interval_ms", 1000L),
+                app.getLong("viewing_writer.offer_timeout_ms", 50L)));
+        me.add(new CatalogCache(app.getLong("catalog.refresh_interval_sec", 300L)));
+        me.add(new ExistenceIndex(app.getLong("existence_index.reconcile_interval_sec", 600L)));
+        me.add(new FavoritesCache(app.getLong("favorites_cache.max_bytes", 64L << 20)));
+        me.add(new CoViewEngine(
+                app.getInt("co_view.top_k", 20),
+                app.getInt("co_view.recent_window", 10),
+                app.getLong("co_view.pair_window_ms", 86400000L),
+                app.getInt("co_view.half_life_days", 14),
+                app.getInt("co_view.max_neighbors", 200),
+                app.getInt("co_view.max_users", 200000),
+                app.getInt("co_view.bootstrap_days", 90),
+                app.getInt("co_view.queue_capacity", 10000)));
+        me.add(new TrendingBoard(app.getInt("trending.top_n", 100), app.getInt("trending.favorite_weight", 5)));
+        me.add(new SessionStore(app.getInt("session.max_sessions", 100000), app.getLong("session.ttl_sec", 86400L)));
     }
 
     @Override
     public void configInterceptor(Interceptors me) {
-        me.addGlobalActionInterceptor(new ParaValidateInterceptor());
+        me.addGlobalActionInterceptor(new MetricsInterceptor());
+        me.addGlobalActionInterceptor(new ConditionalGetInterceptor());
+        Prop app = PropKit.use("app.properties");
+        me.addGlobalActionInterceptor(new QueryBudgetInterceptor(app.getInt("query_budget.default", 5)));
+        me.addGlobalActionInterceptor(new ReadReplicaInterceptor());
+        me.addGlobalActionInterceptor(paraValidateInterceptor);
         me.addGlobalActionInterceptor(new ResponseInterceptor());
     }
 
     @Override
     public void configHandler(Handlers me) {}
+
+    @Override
+    public void afterJFinalStart() {
+        paraValidateInterceptor.compileAll();
+        Prop app = PropKit.use("app.properties");
+        Warmup.start(app.getInt("warmup.rounds", 300), app.getLong("warmup.max_millis", 60000L));
+    }
 }
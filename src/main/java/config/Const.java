@@ -3,4 +3,11 @@ package config;
 public interface Const {
     int CODE_SUCCESS = 0;
     int CODE_ERROR = -1;
+
+    // keyset pagination defaults for list endpoints
+    int DEFAULT_PAGE_SIZE = 50;
+    int MAX_PAGE_SIZE = 200;
+
+    // ids accepted by a single batch call
+    int MAX_BATCH_SIZE = 200;
 }
@@ -1,15 +1,23 @@
 package config;
 
+import com.alibaba.druid.filter.stat.StatFilter;
 import com.alibaba.druid.wall.WallFilter;
 import com.jfinal.plugin.druid.DruidPlugin;
+import filters.QueryCountFilter;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by Max on 2017/4/6.
  */
 public class DataSourceLoader {
     private static final int DEFAULT_MAX_ACTIVE_CONNECTION = 15;
+    private static final Pattern REPLICA_URL_KEY = Pattern.compile("(replica(\\d+))\\.url");
 
     public DataSourceLoader() {
     }
@@ -36,7 +44,82 @@ public class DataSourceLoader {
             ;
         }
 
-        return this.loadDataSourceUsingDruid(url, username, password, dbType, maxActive);
+        DruidPlugin druid = this.loadDataSourceUsingDruid(url, username, password, dbType, maxActive);
+        applyPoolProfile(druid, prop, configName);
+        return druid;
+    }
+
+    /**
+     * Applies the optional &lt;configName&gt;.* pool settings; absent or empty keys keep the Druid plugin defaults.
+     */
+    private void applyPoolProfile(DruidPlugin druid, Properties prop, String configName) {
+        String value;
+        if ((value = profileValue(prop, configName, "initial_size")) != null) {
+            druid.setInitialSize(Integer.parseInt(value));
+        }
+        if ((value = profileValue(prop, configName, "min_idle")) != null) {
+            druid.setMinIdle(Integer.parseInt(value));
+        }
+        if ((value = profileValue(prop, configName, "max_wait_ms")) != null) {
+            druid.setMaxWait(Long.parseLong(value));
+        }
+        if ((value = profileValue(prop, configName, "validation_query")) != null) {
+            druid.setValidationQuery(value);
+        }
+        if ((value = profileValue(prop, configName, "test_on_borrow")) != null) {
+            druid.setTestOnBorrow(Boolean.parseBoolean(value));
+        }
+        if ((value = profileValue(prop, configName, "test_while_idle")) != null) {
+            druid.setTestWhileIdle(Boolean.parseBoolean(value));
+        }
+        if ((value = profileValue(prop, configName, "eviction_interval_ms")) != null) {
+            druid.setTimeBetweenEvictionRunsMillis(Long.parseLong(value));
+        }
+        if ((value = profileValue(prop, configName, "min_evictable_idle_ms")) != null) {
+            druid.setMinEvictableIdleTimeMillis(Long.parseLong(value));
+        }
+        if ((value = profileValue(prop, configName, "ps_cache_size")) != null) {
+            // Druid pools prepared statements per connection once the size is positive
+            druid.setMaxPoolPreparedStatementPerConnectionSize(Integer.parseInt(value));
+        }
+        if ((value = profileValue(prop, configName, "leak_timeout_sec")) != null && Long.parseLong(value) > 0) {
+            // connections held longer are reclaimed and the stack of the borrower is logged
+            druid.setRemoveAbandoned(true);
+            druid.setRemoveAbandonedTimeoutMillis(Long.parseLong(value) * 1000);
+            druid.setLogAbandoned(true);
+        }
+        if ((value = profileValue(prop, configName, "connection_properties")) != null) {
+            druid.setConnectionProperties(value);
+        }
+    }
+
+    private static String profileValue(Properties prop, String configName, String key) {
+        String value = prop.getProperty(configName + "." + key);
+        // keys left unfiltered by the build profile read as ${...}
+        if (value == null || value.trim().isEmpty() || value.trim().startsWith("${")) {
+            return null;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Loads every replicaN.* data source, N being any number, in ascending order of N.
+     *
+     * @return the pools keyed by their replicaN prefix, empty when no replica is configured
+     */
+    public Map<String, DruidPlugin> loadReplicasUsingDruid(Properties prop) {
+        TreeMap<Integer, String> names = new TreeMap<>();
+        for (String key: prop.stringPropertyNames()) {
+            Matcher m = REPLICA_URL_KEY.matcher(key);
+            if (m.matches() && !prop.getProperty(key).trim().isEmpty()) {
+                names.put(Integer.valueOf(m.group(2)), m.group(1));
+            }
+        }
+        Map<String, DruidPlugin> replicas = new LinkedHashMap<>();
+        for (String name: names.values()) {
+            replicas.put(name, loadDataSourceUsingDruid(prop, name));
+        }
+        return replicas;
     }
 
     public DruidPlugin loadDataSourceUsingDruid(String url, String username, String password, String dbType) {
@@ -49,6 +132,12 @@ public class DataSourceLoader {
         WallFilter wallFilter = new WallFilter();
         wallFilter.setDbType(dbType);
         druid.addFilter(wallFilter);
+        druid.addFilter(new QueryCountFilter());
+        // per statement timings, exported by /metrics
+        StatFilter statFilter = new StatFilter();
+        statFilter.setDbType(dbType);
+        statFilter.setMergeSql(true);
+        druid.addFilter(statFilter);
         return druid;
     }
 }
@@ -0,0 +1,185 @@
+package config;
+
+import annotations.ValidatePara;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jfinal.aop.Before;
+import com.jfinal.aop.Invocation;
+import com.jfinal.core.Action;
+import com.jfinal.core.Controller;
+import com.jfinal.core.JFinal;
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.Db;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.ext.interceptor.GET;
+import com.jfinal.render.Render;
+import kit.SyntheticHttp;
+import metrics.MetricsRegistry;
+import plugins.SessionStore;
+import validators.NullValidator;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+
+/**
+ * Replays a synthetic request mix against every action in-process right after start, so interceptor
+ * chains, validators, renders and the JIT are warm before the load balancer sends traffic; see
+ * /health/ready. Read actions are called with real keys sampled from the database and a session of a
+ * sampled user, as well as without parameters; write actions are only called without parameters, which
+ * their validators reject, so the warmup never writes. Metrics recorded while warming are discarded.
+ */
+public final class Warmup {
+    private static volatile boolean ready;
+    private static volatile long requests;
+
+    private Warmup() {
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    public static long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Starts warming up in the background, or reports ready immediately when rounds is 0.
+     *
+     * @param rounds times the whole request mix is replayed
+     * @param maxMillis time after which the node is reported ready even if rounds are left
+     */
+    public static void start(int rounds, long maxMillis) {
+        if (rounds <= 0) {
+            ready = true;
+            return;
+        }
+        Thread t = new Thread(() -> {
+            try {
+                run(rounds, maxMillis);
+            } catch (Exception e) {
+                LogKit.error("Warmup failed, serving cold", e);
+            } finally {
+                ready = true;
+            }
+        }, "warmup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void run(int rounds, long maxMillis) {
+        long start = System.currentTimeMillis();
+        Map<String, String> samples = samples();
+        List<SyntheticRequest> mix = requestMix(samples);
+        SyntheticHttp.NullWriter body = new SyntheticHttp.NullWriter();
+        HttpServletResponse response = SyntheticHttp.response(body);
+        int failures = 0;
+        for (int round = 0; round < rounds && System.currentTimeMillis() - start < maxMillis; round++) {
+            for (SyntheticRequest r: mix) {
+                try {
+                    r.replay(response);
+                } catch (Exception e) {
+                    if (failures++ == 0) {
+                        LogKit.warn("Warmup request " + r.action.getActionKey() + " failed: " + e);
+                    }
+                }
+                requests++;
+            }
+        }
+        if (samples.containsKey("token")) {
+            SessionStore.me().remove(samples.get("token"));
+        }
+        MetricsRegistry.reset();
+        // master and every replica, the read actions were routed to the replicas
+        for (Map.Entry<String, Config> e: DbKit.getConfigSet()) {
+            if (e.getValue().getDataSource() instanceof DruidDataSource) {
+                ((DruidDataSource) e.getValue().getDataSource()).resetStat();
+            }
+        }
+        LogKit.info("Warmup replayed " + requests + " requests over " + mix.size() + " variants in "
+                + (System.currentTimeMillis() - start) + " ms, " + failures + " failed");
+    }
+
+    /**
+     * Parameter values which exist in the database, keyed by parameter name.
+     */
+    private static Map<String, String> samples() {
+        Map<String, String> samples = new HashMap<>();
+        Object userId = Db.queryFirst("select min(id) from user");
+        if (userId != null && SessionStore.me() != null) {
+            samples.put("token", SessionStore.me().create(((Number) userId).intValue()));
+        }
+        putIfPresent(samples, "commodityId", Db.queryFirst("select min(id) from commodity"));
+        putIfPresent(samples, "commodityIds", samples.get("commodityId"));
+        putIfPresent(samples, "categoryName", Db.queryFirst("select name from category order by id limit 1"));
+        putIfPresent(samples, "q", Db.queryFirst("select name from commodity order by id limit 1"));
+        return samples;
+    }
+
+    private static void putIfPresent(Map<String, String> map, String key, Object value) {
+        if (value != null) {
+            map.put(key, value.toString());
+        }
+    }
+
+    private static List<SyntheticRequest> requestMix(Map<String, String> samples) {
+        List<SyntheticRequest> mix = new ArrayList<>();
+        String[] urlPara = new String[1];
+        for (String actionKey: JFinal.me().getAllActionKeys()) {
+            Action action = JFinal.me().getAction(actionKey, urlPara);
+            if (action == null) {
+                continue;
+            }
+            ValidatePara[] rules = action.getMethod().getDeclaredAnnotationsByType(ValidatePara.class);
+            if (isGet(action)) {
+                Map<String, String> params = new HashMap<>();
+                for (ValidatePara rule: rules) {
+                    if (samples.containsKey(rule.value())) {
+                        params.put(rule.value(), samples.get(rule.value()));
+                    }
+                }
+                mix.add(new SyntheticRequest(action, "GET", params));
+                if (!params.isEmpty()) {
+                    mix.add(new SyntheticRequest(action, "GET", Collections.emptyMap()));
+                }
+            } else if (rules.length > 0 && Arrays.asList(rules[0].validators()).contains(NullValidator.class)) {
+                // rejected by the first validator, never reaches the write
+                mix.add(new SyntheticRequest(action, "POST", Collections.emptyMap()));
+            }
+        }
+        return mix;
+    }
+
+    private static boolean isGet(Action action) {
+        Before before = action.getMethod().getAnnotation(Before.class);
+        return before != null && Arrays.asList(before.value()).contains(GET.class);
+    }
+
+    private static final class SyntheticRequest {
+        final Action action;
+        final String method;
+        final Map<String, String> params;
+
+        SyntheticRequest(Action action, String method, Map<String, String> params) {
+            this.action = action;
+            this.method = method;
+            this.params = params;
+        }
+
+        /**
+         * Does what the action handler does for a request, minus the dev mode report.
+         */
+        void replay(HttpServletResponse response) throws ReflectiveOperationException {
+            HttpServletRequest request = SyntheticHttp.request(method, params);
+            Controller controller = action.getControllerClass().getDeclaredConstructor().newInstance();
+            controller.setHttpServletRequest(request);
+            controller.setHttpServletResponse(response);
+            new Invocation(action, controller).invoke();
+            Render render = controller.getRender();
+            if (render != null) {
+                render.setContext(request, response, action.getViewPath()).render();
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package controllers;
+
+import annotations.QueryBudget;
+import annotations.ValidatePara;
+import com.jfinal.aop.Before;
+import com.jfinal.ext.interceptor.GET;
+import com.jfinal.ext.interceptor.POST;
+import filters.SlowQueryFilter;
+import plugins.CatalogCache;
+import plugins.CatalogSnapshot;
+import validators.AdminTokenValidator;
+import validators.NullValidator;
+import validators.OptionalIntegerFormatValidator;
+
+import java.util.*;
+
+/**
+ * Operational endpoints, all of them require the admin token.
+ */
+public class AdminController extends BaseController {
+
+    /**
+     * @api {post} /admin/reloadCatalog Reload the in-memory catalog from the database
+     * @apiName reloadCatalog
+     * @apiGroup admin
+     *
+     * @apiParam {String} token Admin token.
+     * @apiSuccessExample {json} Success-Response:
+     * {
+     *     "commodities": 120,
+     *     "brands": 12,
+     *     "categories": 5,
+     *     "estimated_bytes": 163840,
+     *     "load_millis": 35,
+     *     "loaded_at": 1525132800000
+     * }
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Token is not valid.
+     */
+    @Before(POST.class)
+    @QueryBudget(3)
+    @ValidatePara(value = "token", validators = {NullValidator.class, AdminTokenValidator.class})
+    public void reloadCatalog() {
+        successResponse(toStats(CatalogCache.me().refresh()));
+    }
+
+    /**
+     * @api {get} /admin/catalogStats Size and age of the in-memory catalog
+     * @apiName catalogStats
+     * @apiGroup admin
+     *
+     * @apiParam {String} token Admin token.
+     * @apiSuccessExample {json} Success-Response:
+     * {
+     *     "commodities": 120,
+     *     "brands": 12,
+     *     "categories": 5,
+     *     "estimated_bytes": 163840,
+     *     "load_millis": 35,
+     *     "loaded_at": 1525132800000
+     * }
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Token is not valid.
+     */
+    @Before(GET.class)
+    @QueryBudget(0)
+    @ValidatePara(value = "token", validators = {NullValidator.class, AdminTokenValidator.class})
+    public void catalogStats() {
+        successResponse(toStats(CatalogCache.me().snapshot()));
+    }
+
+    /**
+     * @api {get} /admin/slowQueries Statements slower than slow_query.threshold_ms
+     * @apiName slowQueries
+     * @apiGroup admin
+     *
+     * @apiParam {String} token Admin token.
+     * @apiParam {Number} [top=20] Number of shapes and of recent executions returned.
+     * @apiSuccessExample {json} Success-Response:
+     * {
+     *     "shapes": [{
+     *         "sql": "SELECT * FROM commodity WHERE name LIKE ?",
+     *         "count": 12,
+     *         "total_millis": 4210,
+     *         "max_millis": 630,
+     *         "last_action": "/commodity/list",
+     *         "last_params": ["%shirt%"],
+     *         "explain": "id=1, select_type=SIMPLE, table=commodity, type=ALL, ...\n"
+     *     }],
+     *     "recent": [{
+     *         "sql": "select * from commodity where name like ?",
+     *         "params": ["%shirt%"],
+     *         "action": "/commodity/list",
+     *         "millis": 630,
+     *         "time": 1525132800000
+     *     }]
+     * }
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Token is not valid.
+     * @apiError {Msg} 3 top should be legal int format.
+     */
+    @Before(GET.class)
+    @QueryBudget(0)
+    @ValidatePara(value = "token", validators = {NullValidator.class, AdminTokenValidator.class})
+    @ValidatePara(value = "top", validators = {OptionalIntegerFormatValidator.class})
+    public void slowQueries() {
+        int top = Math.max(1, getIntPara("top", 20));
+        SlowQueryFilter filter = SlowQueryFilter.me();
+        List<Map<String, Object>> shapes = new ArrayList<>();
+        for (SlowQueryFilter.Shape shape: filter.getTopShapes(top)) {
+            Map<String, Object> s = new HashMap<>();
+            s.put("sql", shape.sql);
+            s.put("count", shape.getCount());
+            s.put("total_millis", shape.getTotalNanos() / 1000000);
+            s.put("max_millis", shape.getMaxNanos() / 1000000);
+            SlowQueryFilter.SlowQuery last = shape.getLast();
+            if (last != null) {
+                s.put("last_action", last.action);
+                s.put("last_params", last.params);
+            }
+            s.put("explain", shape.getExplain());
+            shapes.add(s);
+        }
+        List<Map<String, Object>> recent = new ArrayList<>();
+        for (SlowQueryFilter.SlowQuery query: filter.getRecent()) {
+            if (recent.size() == top) {
+                break;
+            }
+            Map<String, Object> q = new HashMap<>();
+            q.put("sql", query.sql);
+            q.put("params", query.params);
+            q.put("action", query.action);
+            q.put("millis", query.elapsedNanos / 1000000);
+            q.put("time", query.time);
+            recent.add(q);
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("shapes", shapes);
+        result.put("recent", recent);
+        successResponse(result);
+    }
+
+    private Map<String, Object> toStats(CatalogSnapshot snapshot) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("commodities", snapshot.getCommodityCount());
+        stats.put("brands", snapshot.getBrandCount());
+        stats.put("categories", snapshot.getCategoryCount());
+        stats.put("estimated_bytes", snapshot.getEstimatedBytes());
+        stats.put("load_millis", snapshot.getLoadMillis());
+        stats.put("loaded_at", snapshot.getLoadedAt());
+        return stats;
+    }
+}
@@ -1,9 +1,15 @@
 package controllers;
 
 import com.jfinal.core.Controller;
+import interceptors.ConditionalGetInterceptor;
+import models.Commodity;
+import models.User;
+import plugins.SessionStore;
+import renders.JsonStream;
+import validators.CommodityRecordExistValidator;
+import validators.SessionValidator;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 import static config.Const.*;
 
@@ -15,15 +21,107 @@ public class BaseController extends Controller {
         setAttr("code", CODE_SUCCESS);
     }
 
+    /**
+     * Success response of a keyset paginated action.
+     *
+     * @param data a page of rows, a List or a {@link JsonStream}
+     * @param next cursor of the following page, null on the last page
+     */
+    public void pageResponse(Object data, Object next) {
+        setAttr("data", data);
+        setAttr("next", next);
+        setAttr("code", CODE_SUCCESS);
+    }
+
     public void successResponse(String key, Object value) {
         responseObj.put(key, value);
         setAttr("data", responseObj);
         setAttr("code", CODE_SUCCESS);
     }
 
+    /**
+     * Marks a catalog response read from the database instead of the snapshot, see {@link ConditionalGetInterceptor}.
+     * Not public, JFinal would route it as an action like any public method without parameters.
+     */
+    protected void servedFromDatabase() {
+        setAttr(ConditionalGetInterceptor.FROM_DATABASE_ATTR, Boolean.TRUE);
+    }
+
     public void errorResponse(String message) {
         setAttr("msg", message);
         setAttr("code", CODE_ERROR);
     }
 
+    /**
+     * Reads an optional integer parameter, falling back to the default when it is absent.
+     * Format is expected to be checked beforehand by {@link validators.OptionalIntegerFormatValidator}.
+     */
+    public int getIntPara(String name, int defaultValue) {
+        String value = getPara(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public long getLongPara(String name, long defaultValue) {
+        String value = getPara(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * Reads a comma separated id list, format is expected to be checked by {@link validators.IntegerListValidator}.
+     * Duplicates are dropped, the order of first occurrence is kept.
+     */
+    public int[] getIntListPara(String name) {
+        String[] items = getPara(name).split(",");
+        int[] ids = new int[items.length];
+        int n = 0;
+        Set<Integer> seen = new HashSet<>();
+        for (String item: items) {
+            int id = Integer.parseInt(item.trim());
+            if (seen.add(id)) {
+                ids[n++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * Reads the page size parameter and clamps it into [1, MAX_PAGE_SIZE].
+     */
+    public int getLimitPara(String name) {
+        int limit = getIntPara(name, DEFAULT_PAGE_SIZE);
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Returns the user id of the session resolved by {@link SessionValidator} for the token parameter.
+     * Not public, JFinal would route it as an action like any public method without parameters.
+     */
+    protected int getSessionUserId() {
+        Integer userId = getAttr(SessionValidator.USER_ID_ATTR);
+        return userId;
+    }
+
+    /**
+     * Reads the user of the session resolved by {@link SessionValidator}. Sessions are not checked against
+     * the database, so a user deleted since the login ends the session here: it is removed and null returned.
+     */
+    protected User getSessionUser() {
+        User myUser = User.dao.findById(getSessionUserId());
+        if (myUser == null) {
+            SessionStore.me().remove(getPara("token").trim());
+        }
+        return myUser;
+    }
+
+    /**
+     * Returns the commodity already loaded by {@link CommodityRecordExistValidator} in this request, or reads it.
+     */
+    public Commodity getValidatedCommodity(int commodityId) {
+        Commodity commodity = getAttr(CommodityRecordExistValidator.LOADED_ATTR);
+        if (commodity != null && commodity.getInt("id") == commodityId) {
+            return commodity;
+        }
+        return Commodity.dao.findById(commodityId);
+    }
+
 }
@@ -1,31 +1,62 @@
 package controllers;
 
+import annotations.QueryBudget;
 import annotations.ValidatePara;
 import com.jfinal.aop.Before;
 import com.jfinal.ext.interceptor.GET;
 import com.jfinal.ext.interceptor.POST;
 import com.jfinal.plugin.activerecord.ActiveRecordException;
-import models.Category;
+import com.jfinal.plugin.activerecord.Db;
+import kit.IntHashSet;
+import models.Brand;
 import models.Commodity;
 import models.FavoriteList;
-import models.ViewingHistory;
+import plugins.CatalogCache;
+import plugins.CatalogSnapshot;
+import plugins.CoViewEngine;
+import plugins.ExistenceIndex;
+import plugins.FavoritesCache;
+import plugins.TrendingBoard;
+import plugins.ViewingHistoryWriter;
+import renders.JsonStream;
 import validators.*;
 
-import java.sql.Timestamp;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.sql.PreparedStatement;
+import java.util.*;
 
 /**
  * @author Jieying Xu
  */
 public class CommodityController extends BaseController {
+    public static final String LIST_BY_CATEGORY_NAME_SQL = "select c.id AS commodity_id, " +
+            "c.desc_img AS commodity_desc_img, " +
+            "c.name AS commodity_name, " +
+            "b.name AS brand_name, " +
+            "b.logo AS brand_logo, " +
+            "b.desc AS brand_desc " +
+            "from commodity c inner join brand b on c.brand_id=b.id " +
+            "inner join category cat on c.category_id = cat.id " +
+            "where cat.name = ? and c.id > ? " +
+            "order by c.id " +
+            "limit ?";
+    static final String FAVORITE_SQL = "select * from favorite_list where user_id = ? and commodity_id = ?";
+    private static final String DELETE_FAVORITE_SQL = "delete from favorite_list where user_id = ? and commodity_id = ?";
+
+    /**
+     * Statements of the read actions, prepared on every pooled connection at start, see {@link plugins.PoolWarmer}.
+     */
+    public static final String[] HOT_STATEMENTS = {LIST_BY_CATEGORY_NAME_SQL, FAVORITE_SQL};
 
     /**
      * @api {get} /commodity/listAll Display all commodities
      * @apiName listAll
      * @apiGroup commodity
      *
+     * Commodities are ordered by id. The response envelope carries "next", the cursor of the following
+     * page, unless this is the last page.
+     *
+     * @apiParam {String} [after] Cursor, only return commodities whose id is greater than this one.
+     * @apiParam {String} [limit] Page size, 50 by default and at most 200.
      * @apiSuccessExample {json} Success-Response:
      *  [
      *      {
@@ -45,18 +76,14 @@ public class CommodityController extends BaseController {
      *          "commodity_name": "YSL102"
      *      }
      *  ]
+     * @apiError {Msg} 1 after/limit is not legal integer format.
      */
     @Before(GET.class)
+    @QueryBudget(0)
+    @ValidatePara(value = "after", validators = {OptionalIntegerFormatValidator.class})
+    @ValidatePara(value = "limit", validators = {OptionalIntegerFormatValidator.class})
     public void listAll() {
-        String sql = "select c.id AS commodity_id, " +
-                "c.desc_img AS commodity_desc_img, " +
-                "c.name AS commodity_name, " +
-                "b.name AS brand_name, " +
-                "b.logo AS brand_logo, " +
-                "b.desc AS brand_desc " +
-                "from commodity c inner join brand b on c.brand_id = b.id";
-        List<Commodity> allCommodities = Commodity.dao.find(sql);
-        successResponse(allCommodities);
+        pageOfRows(CatalogCache.me().snapshot().getListRows());
     }
 
     /**
@@ -64,7 +91,11 @@ public class CommodityController extends BaseController {
      * @apiName list
      * @apiGroup commodity
      *
+     * Paginated like /commodity/listAll.
+     *
      * @apiParam {String} categoryName The name of the category.
+     * @apiParam {String} [after] Cursor, only return commodities whose id is greater than this one.
+     * @apiParam {String} [limit] Page size, 50 by default and at most 200.
      * @apiSuccessExample {json} Success-Response:
      *  [                                                                   
      *      {                                                               
@@ -81,22 +112,86 @@ public class CommodityController extends BaseController {
      * @apiError {Msg} 1 Lack input.
      * @apiError {Msg} 2 Input is empty string or whitespaces.
      * @apiError {Msg} 3 Category name not found in the database.
+     * @apiError {Msg} 4 after/limit is not legal integer format.
      */
     @Before(GET.class)
+    @QueryBudget(2)
     @ValidatePara(value = "categoryName", validators = {NullValidator.class, EmptyStringValidator.class, CategoryRecordExistValidator.class})
+    @ValidatePara(value = "after", validators = {OptionalIntegerFormatValidator.class})
+    @ValidatePara(value = "limit", validators = {OptionalIntegerFormatValidator.class})
     public void list() {
         String name = getPara("categoryName");
-        int categoryId = Category.dao.findFirst("select * from category where name = ?", name).getInt("id");
-        String sql = "select c.id AS commodity_id, " +
-                "c.desc_img AS commodity_desc_img, " +
-                "c.name AS commodity_name, " +
-                "b.name AS brand_name, " +
-                "b.logo AS brand_logo, " +
-                "b.desc AS brand_desc " +
-                "from commodity c inner join brand b on c.brand_id=b.id " +
-                "where category_id = ?";
-        List<Commodity> data = Commodity.dao.find(sql, categoryId);
-        successResponse(data);
+        CatalogSnapshot catalog = CatalogCache.me().snapshot();
+        Integer categoryId = catalog.getCategoryId(name);
+        if (categoryId != null) {
+            pageOfRows(catalog.getListRows(categoryId));
+            return;
+        }
+        // category created after the last catalog refresh, resolve it by name in the listing query itself
+        servedFromDatabase();
+        int limit = getLimitPara("limit");
+        List<Commodity> rows = Commodity.dao.find(LIST_BY_CATEGORY_NAME_SQL, name, getIntPara("after", 0), limit + 1);
+        Object next = null;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            next = rows.get(limit - 1).get("commodity_id");
+        }
+        pageResponse(rows, next);
+    }
+
+    private static IntHashSet toSet(int[] ids) {
+        return IntHashSet.of(ids, ids.length);
+    }
+
+    private static Map<String, Object> favoriteResult(int commodityId, String result) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("commodity_id", commodityId);
+        map.put("result", result);
+        return map;
+    }
+
+    /**
+     * Responds with the page of catalog listing rows selected by the after and limit parameters.
+     */
+    private void pageOfRows(List<Commodity> rows) {
+        int from = CatalogSnapshot.indexAfter(rows, getIntPara("after", 0));
+        int to = Math.min(rows.size(), from + getLimitPara("limit"));
+        Object next = to < rows.size() ? rows.get(to - 1).get("commodity_id") : null;
+        pageResponse(JsonStream.of(rows.subList(from, to)), next);
+    }
+
+    /**
+     * @api {get} /commodity/search Search commodities by name and brand
+     * @apiName search
+     * @apiGroup commodity
+     *
+     * Every word of q must start a word of the commodity name, the brand name or the brand description,
+     * so partial input already matches. Matches in the commodity name rank first, then brand name, then
+     * brand description, whole words before prefixes. Rows are those of /commodity/listAll.
+     *
+     * @apiParam {String} q The search text.
+     * @apiParam {String} [limit] Number of results, 50 by default and at most 200.
+     * @apiSuccessExample {json} Success-Response:
+     *  [
+     *      {
+     *          "commodity_id": 1,
+     *          "commodity_desc_img": "www.exampleImageUrl.com",
+     *          "brand_name": "chanel",
+     *          "brand_logo": "www.example.com",
+     *          "brand_desc": "A French Luxury Brand.",
+     *          "commodity_name": "Dior999"
+     *      }
+     *  ]
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Input is empty string or whitespaces.
+     * @apiError {Msg} 3 limit is not legal integer format.
+     */
+    @Before(GET.class)
+    @QueryBudget(0)
+    @ValidatePara(value = "q", validators = {NullValidator.class, EmptyStringValidator.class})
+    @ValidatePara(value = "limit", validators = {OptionalIntegerFormatValidator.class})
+    public void search() {
+        successResponse(CatalogCache.me().searchIndex().search(getPara("q"), getLimitPara("limit")));
     }
 
     /**
@@ -115,9 +210,11 @@ public class CommodityController extends BaseController {
      * @apiError {Msg} 4 Commodity not found.
      */
     @Before(GET.class)
+    @QueryBudget(1)
     @ValidatePara(value = "commodityId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, CommodityRecordExistValidator.class})
     public void tryOn() {
-
+        // no try-on model yet, the documented empty object instead of a response without a code
+        successResponse(Collections.emptyMap());
     }
 
     /**
@@ -145,20 +242,215 @@ public class CommodityController extends BaseController {
      * @apiError {Msg} 4 Commodity not found.
      */
     @Before(GET.class)
+    @QueryBudget(1)
     @ValidatePara(value = "commodityId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, CommodityRecordExistValidator.class})
     public void detail() {
         int commodityId = Integer.parseInt(getPara("commodityId"));
-        Commodity c = Commodity.dao.findById(commodityId);
+        Commodity c = CatalogCache.me().snapshot().getCommodity(commodityId);
+        if (c == null) {
+            c = getValidatedCommodity(commodityId);
+            servedFromDatabase();
+        }
+        if (c == null) {
+            // the existence index still had a row deleted outside the app since its last reconcile
+            ExistenceIndex.me().removeCommodity(commodityId);
+            errorResponse("Commodity not found!");
+            return;
+        }
         successResponse(c);
     }
 
+    /**
+     * @api {get} /commodity/details Get the detailed information of several commodities
+     * @apiName details
+     * @apiGroup commodity
+     *
+     * Commodities are returned in the order of commodityIds, with the name, logo and description of their
+     * brand; ids that match no commodity are listed in missing.
+     *
+     * @apiParam {String} commodityIds Comma separated commodity ids, at most 200.
+     * @apiSuccessExample {json} Success-Response:
+     * {
+     *     "commodities": [{
+     *         "id": 1,
+     *         "name": String,
+     *         "desc": String,
+     *         "desc_img": url,
+     *         "model_url": url,
+     *         "shop_url": url,
+     *         "category_id": int,
+     *         "brand_id": int,
+     *         "tp_shop_id": int,
+     *         "brand_name": String,
+     *         "brand_logo": url,
+     *         "brand_desc": String
+     *     }],
+     *     "missing": [92]
+     * }
+     *
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Input is empty string or whitespaces.
+     * @apiError {Msg} 3 commodityIds is not a legal list of ints.
+     */
+    @Before(GET.class)
+    @QueryBudget(1)
+    @ValidatePara(value = "commodityIds", validators = {NullValidator.class, EmptyStringValidator.class, IntegerListValidator.class})
+    public void details() {
+        int[] ids = getIntListPara("commodityIds");
+        CatalogSnapshot catalog = CatalogCache.me().snapshot();
+        Map<Integer, Commodity> found = new HashMap<>(ids.length * 2);
+        List<Integer> misses = new ArrayList<>();
+        for (int id: ids) {
+            Commodity c = catalog.getCommodity(id);
+            if (c == null) {
+                misses.add(id);
+                continue;
+            }
+            // snapshot models are shared, copy before adding the brand
+            Commodity detail = new Commodity().put(c);
+            Brand b = c.get("brand_id") == null ? null : catalog.getBrand(c.getInt("brand_id"));
+            detail.put("brand_name", b == null ? null : b.get("name"))
+                    .put("brand_logo", b == null ? null : b.get("logo"))
+                    .put("brand_desc", b == null ? null : b.get("desc"));
+            found.put(id, detail);
+        }
+        if (!misses.isEmpty()) {
+            // commodities created after the last catalog refresh
+            servedFromDatabase();
+            StringBuilder sql = new StringBuilder("select c.*, b.name as brand_name, b.logo as brand_logo, " +
+                    "b.desc as brand_desc from commodity c left join brand b on c.brand_id = b.id where c.id in (");
+            for (int i = 0; i < misses.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            for (Commodity c: Commodity.dao.find(sql.append(")").toString(), misses.toArray())) {
+                found.put(c.getInt("id"), c);
+            }
+        }
+
+        List<Commodity> commodities = new ArrayList<>(found.size());
+        List<Integer> missing = new ArrayList<>();
+        for (int id: ids) {
+            Commodity c = found.get(id);
+            if (c == null) {
+                missing.add(id);
+            } else {
+                commodities.add(c);
+            }
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("commodities", commodities);
+        result.put("missing", missing);
+        successResponse(result);
+    }
+
+    /**
+     * @api {get} /commodity/related Commodities viewed together with this one
+     * @apiName related
+     * @apiGroup commodity
+     *
+     * Ranked by how often users viewed both commodities within a day, recent views counting more,
+     * see {@link plugins.CoViewEngine}. The list is empty for commodities nobody viewed along others yet.
+     *
+     * @apiParam {String} commodityId The id of the commodity.
+     * @apiParam {String} [limit] How many commodities to return, 10 by default and at most co_view.top_k.
+     * @apiSuccessExample {json} Success-Response:
+     * [{
+     *     "id": 2,
+     *     "name": String,
+     *     "desc": String,
+     *     "desc_img": url,
+     *     "model_url": url,
+     *     "shop_url": url,
+     *     "category_id": int,
+     *     "brand_id": int,
+     *     "tp_shop_id": int
+     * }]
+     *
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Input is empty string or whitespaces.
+     * @apiError {Msg} 3 Commodity id is not legal integer format.
+     * @apiError {Msg} 4 Commodity not found.
+     * @apiError {Msg} 5 limit is not legal integer format.
+     */
+    @Before(GET.class)
+    @QueryBudget(1)
+    @ValidatePara(value = "commodityId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, CommodityRecordExistValidator.class})
+    @ValidatePara(value = "limit", validators = {OptionalIntegerFormatValidator.class})
+    public void related() {
+        int commodityId = Integer.parseInt(getPara("commodityId"));
+        int limit = Math.max(1, getIntPara("limit", 10));
+        CatalogSnapshot catalog = CatalogCache.me().snapshot();
+        List<Commodity> related = new ArrayList<>();
+        for (int id: CoViewEngine.me().related(commodityId)) {
+            if (related.size() == limit) {
+                break;
+            }
+            // commodities deleted or not yet in the catalog are skipped
+            Commodity c = catalog.getCommodity(id);
+            if (c != null) {
+                related.add(c);
+            }
+        }
+        successResponse(related);
+    }
+
+    /**
+     * @api {get} /commodity/trending Most viewed and favorited commodities
+     * @apiName trending
+     * @apiGroup commodity
+     *
+     * Ranked by views plus favorites weighted by trending.favorite_weight over the window, updated once a
+     * minute, see {@link plugins.TrendingBoard}.
+     *
+     * @apiParam {String} [window] hour, day or week, day by default.
+     * @apiParam {String} [limit] How many commodities to return, 20 by default and at most trending.top_n.
+     * @apiSuccessExample {json} Success-Response:
+     * [{
+     *     "id": 1,
+     *     "name": String,
+     *     "desc": String,
+     *     "desc_img": url,
+     *     "model_url": url,
+     *     "shop_url": url,
+     *     "category_id": int,
+     *     "brand_id": int,
+     *     "tp_shop_id": int,
+     *     "views": 120,
+     *     "favorites": 8
+     * }]
+     *
+     * @apiError {Msg} 1 window is not hour, day or week.
+     * @apiError {Msg} 2 limit is not legal integer format.
+     */
+    @Before(GET.class)
+    @QueryBudget(0)
+    @ValidatePara(value = "window", validators = {TrendingWindowValidator.class})
+    @ValidatePara(value = "limit", validators = {OptionalIntegerFormatValidator.class})
+    public void trending() {
+        String window = getPara("window", TrendingBoard.DAY).trim();
+        int limit = Math.max(1, getIntPara("limit", 20));
+        CatalogSnapshot catalog = CatalogCache.me().snapshot();
+        List<Commodity> trending = new ArrayList<>();
+        for (TrendingBoard.Ranked r: TrendingBoard.me().ranking(window)) {
+            if (trending.size() == limit) {
+                break;
+            }
+            Commodity c = catalog.getCommodity(r.getCommodityId());
+            if (c != null) {
+                // snapshot models are shared, copy before adding the counts
+                trending.add(new Commodity().put(c).put("views", r.getViews()).put("favorites", r.getFavorites()));
+            }
+        }
+        successResponse(trending);
+    }
+
     /**
      * @api {get} /commodity/checkIsFavorite Check if the commodity is favorited by the user
      * @apiName checkIsFavorite
      * @apiGroup commodity
      *
      * @apiParam {String} commodityId The id of the commodity.
-     * @apiParam {String} userId The id of the user.
+     * @apiParam {String} token Session token returned by login.
      * @apiSuccessExample {json} Success-Response:
      * {
      *     "favorited": boolean
@@ -166,18 +458,46 @@ public class CommodityController extends BaseController {
      *
      * @apiError {Msg} 1 Lack input.
      * @apiError {Msg} 2 Input is empty string or whitespaces.
-     * @apiError {Msg} 3 Id is not legal integer format.
+     * @apiError {Msg} 3 Commodity id is not legal integer format.
      * @apiError {Msg} 4 Commodity not found.
-     * @apiError {Msg} 4 User not found.
+     * @apiError {Msg} 4 Session expired.
      */
     @Before(GET.class)
+    @QueryBudget(2)
     @ValidatePara(value = "commodityId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, CommodityRecordExistValidator.class})
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
     public void checkIsFavorite() {
-        int userId = Integer.parseInt(getPara("userId"));
+        int userId = getSessionUserId();
         int commodityId = Integer.parseInt(getPara("commodityId"));
-        boolean favorited = (FavoriteList.dao.findFirst("select * from favorite_list where user_id = ? and commodity_id = ?", userId, commodityId) != null);
-        successResponse("favorited", favorited);
+        successResponse("favorited", FavoritesCache.me().isFavorite(userId, commodityId));
+    }
+
+    /**
+     * @api {get} /commodity/checkFavorites Which of the given commodities are favorited by the user
+     * @apiName checkFavorites
+     * @apiGroup commodity
+     *
+     * Unknown commodity ids are simply reported as not favorited.
+     *
+     * @apiParam {String} commodityIds Comma separated commodity ids, at most 200.
+     * @apiParam {String} token Session token returned by login.
+     * @apiSuccessExample {json} Success-Response:
+     * {
+     *     "favorited": [3, 15]
+     * }
+     *
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Input is empty string or whitespaces.
+     * @apiError {Msg} 3 commodityIds is not a legal list of ints.
+     * @apiError {Msg} 4 Session expired.
+     */
+    @Before(GET.class)
+    @QueryBudget(1)
+    @ValidatePara(value = "commodityIds", validators = {NullValidator.class, EmptyStringValidator.class, IntegerListValidator.class})
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
+    public void checkFavorites() {
+        int userId = getSessionUserId();
+        successResponse("favorited", FavoritesCache.me().favorited(userId, getIntListPara("commodityIds")));
     }
 
     /**
@@ -186,7 +506,7 @@ public class CommodityController extends BaseController {
      * @apiGroup commodity
      *
      * @apiParam {String} commodityId The id of the commodity.
-     * @apiParam {String} userId The id of the user.
+     * @apiParam {String} token Session token returned by login.
      * @apiSuccessExample {json} Success-Response:
      * {
      *     "msg": "This commodity is successfully added to the user's favorite."
@@ -194,21 +514,24 @@ public class CommodityController extends BaseController {
      *
      * @apiError {Msg} 1 Lack input.
      * @apiError {Msg} 2 Input is empty string or whitespaces.
-     * @apiError {Msg} 3 Id is not legal integer format.
+     * @apiError {Msg} 3 Commodity id is not legal integer format.
      * @apiError {Msg} 4 Commodity not found.
-     * @apiError {Msg} 4 User not found.
+     * @apiError {Msg} 4 Session expired.
      * @apiError {Msg} 5 Duplicate record.
      */
     @Before(POST.class)
+    @QueryBudget(3)
     @ValidatePara(value = "commodityId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, CommodityRecordExistValidator.class})
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
     public void addFavorite() {
-        int userId = Integer.parseInt(getPara("userId"));
+        int userId = getSessionUserId();
         int commodityId = Integer.parseInt(getPara("commodityId"));
         FavoriteList newRecord = new FavoriteList();
         newRecord.set("user_id", userId).set("commodity_id", commodityId);
         try {
             newRecord.save();
+            FavoritesCache.me().added(userId, commodityId);
+            TrendingBoard.me().favorited(commodityId);
             successResponse("msg", "This commodity is successfully added to the user's favorite.");
         } catch (ActiveRecordException e) {
             errorResponse("Duplicate record!");
@@ -221,7 +544,7 @@ public class CommodityController extends BaseController {
      * @apiGroup commodity
      *
      * @apiParam {String} commodityId The id of the commodity.
-     * @apiParam {String} userId The id of the user.
+     * @apiParam {String} token Session token returned by login.
      * @apiSuccessExample {json} Success-Response:
      * {
      *     "msg": "This commodity is successfully deleted from the user's favorite."
@@ -229,33 +552,163 @@ public class CommodityController extends BaseController {
      *
      * @apiError {Msg} 1 Lack input.
      * @apiError {Msg} 2 Input is empty string or whitespaces.
-     * @apiError {Msg} 3 Id is not legal integer format.
+     * @apiError {Msg} 3 Commodity id is not legal integer format.
      * @apiError {Msg} 4 Commodity not found.
-     * @apiError {Msg} 5 User not found.
+     * @apiError {Msg} 5 Session expired.
      * @apiError {Msg} 6 Record not exist.
      */
     @Before(POST.class)
+    @QueryBudget(4)
     @ValidatePara(value = "commodityId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, CommodityRecordExistValidator.class})
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
     public void delFavorite() {
-        int userId = Integer.parseInt(getPara("userId"));
+        int userId = getSessionUserId();
         int commodityId = Integer.parseInt(getPara("commodityId"));
-        FavoriteList record = FavoriteList.dao.findFirst("select * from favorite_list where user_id = ? and commodity_id = ?", userId, commodityId);
+        FavoriteList record = FavoriteList.dao.findFirst(FAVORITE_SQL, userId, commodityId);
         if (record == null) {
             errorResponse("Record not found");
         } else {
             record.delete();
+            FavoritesCache.me().removed(userId, commodityId);
             successResponse("msg", "This commodity is successfully deleted from the user's favorite.");
         }
     }
 
+    /**
+     * @api {post} /commodity/addFavorites Add commodities to the user's favorite list in one call
+     * @apiName addFavorites
+     * @apiGroup commodity
+     *
+     * Meant for syncing an offline wishlist. Every id gets its own result: added, already_favorited or
+     * not_found; the call itself only fails on invalid input.
+     *
+     * @apiParam {String} commodityIds Comma separated commodity ids, at most 200.
+     * @apiParam {String} token Session token returned by login.
+     * @apiSuccessExample {json} Success-Response:
+     * [
+     *     {"commodity_id": 3, "result": "added"},
+     *     {"commodity_id": 15, "result": "already_favorited"},
+     *     {"commodity_id": 92, "result": "not_found"}
+     * ]
+     *
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Input is empty string or whitespaces.
+     * @apiError {Msg} 3 commodityIds is not a legal list of ints.
+     * @apiError {Msg} 4 Session expired.
+     */
+    @Before(POST.class)
+    @QueryBudget(3)
+    @ValidatePara(value = "commodityIds", validators = {NullValidator.class, EmptyStringValidator.class, IntegerListValidator.class})
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
+    public void addFavorites() {
+        int userId = getSessionUserId();
+        int[] ids = getIntListPara("commodityIds");
+        IntHashSet existing = toSet(ExistenceIndex.me().existingCommodities(ids));
+        IntHashSet favorited = toSet(FavoritesCache.me().favorited(userId, ids));
+
+        List<Map<String, Object>> results = new ArrayList<>(ids.length);
+        int[] toAdd = new int[ids.length];
+        int n = 0;
+        for (int id: ids) {
+            String result;
+            if (!existing.contains(id)) {
+                result = "not_found";
+            } else if (favorited.contains(id)) {
+                result = "already_favorited";
+            } else {
+                result = "added";
+                toAdd[n++] = id;
+            }
+            results.add(favoriteResult(id, result));
+        }
+        if (n > 0) {
+            // one statement, atomic on its own; a concurrent add of the same pair is absorbed by the upsert
+            StringBuilder sql = new StringBuilder("insert into favorite_list(user_id, commodity_id) values ");
+            Object[] paras = new Object[n * 2];
+            for (int i = 0; i < n; i++) {
+                sql.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+                paras[i * 2] = userId;
+                paras[i * 2 + 1] = toAdd[i];
+            }
+            sql.append(" on duplicate key update commodity_id = values(commodity_id)");
+            Db.update(sql.toString(), paras);
+            FavoritesCache.me().added(userId, Arrays.copyOf(toAdd, n));
+            for (int i = 0; i < n; i++) {
+                TrendingBoard.me().favorited(toAdd[i]);
+            }
+        }
+        successResponse(results);
+    }
+
+    /**
+     * @api {post} /commodity/delFavorites Delete commodities from the user's favorite list in one call
+     * @apiName delFavorites
+     * @apiGroup commodity
+     *
+     * Every id gets its own result: removed when this call deleted the favorite, not_favorited otherwise.
+     *
+     * @apiParam {String} commodityIds Comma separated commodity ids, at most 200.
+     * @apiParam {String} token Session token returned by login.
+     * @apiSuccessExample {json} Success-Response:
+     * [
+     *     {"commodity_id": 3, "result": "removed"},
+     *     {"commodity_id": 92, "result": "not_favorited"}
+     * ]
+     *
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Input is empty string or whitespaces.
+     * @apiError {Msg} 3 commodityIds is not a legal list of ints.
+     * @apiError {Msg} 4 Session expired.
+     */
+    @Before(POST.class)
+    @QueryBudget(2)
+    @ValidatePara(value = "commodityIds", validators = {NullValidator.class, EmptyStringValidator.class, IntegerListValidator.class})
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
+    public void delFavorites() {
+        int userId = getSessionUserId();
+        int[] ids = getIntListPara("commodityIds");
+        int[] toRemove = toSet(FavoritesCache.me().favorited(userId, ids)).toArray();
+        IntHashSet removed = IntHashSet.EMPTY;
+        if (toRemove.length > 0) {
+            // one delete per id in a single batch, so that the update counts tell which rows this request
+            // removed and a favorite deleted concurrently is reported by one request only. Per statement
+            // counts need rewriteBatchedStatements to stay off in connection_properties
+            int[] counts = (int[]) Db.execute(conn -> {
+                // by hand, Db.batch executes an extra empty batch when the ids fill its batch size
+                try (PreparedStatement pst = conn.prepareStatement(DELETE_FAVORITE_SQL)) {
+                    for (int id: toRemove) {
+                        pst.setInt(1, userId);
+                        pst.setInt(2, id);
+                        pst.addBatch();
+                    }
+                    return pst.executeBatch();
+                }
+            });
+            int[] deleted = new int[toRemove.length];
+            int n = 0;
+            for (int i = 0; i < toRemove.length; i++) {
+                if (counts[i] > 0) {
+                    deleted[n++] = toRemove[i];
+                }
+            }
+            removed = IntHashSet.of(deleted, n);
+            FavoritesCache.me().removed(userId, toRemove);
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>(ids.length);
+        for (int id: ids) {
+            results.add(favoriteResult(id, removed.contains(id) ? "removed" : "not_favorited"));
+        }
+        successResponse(results);
+    }
+
     /**
      * @api {post} /commodity/addViewing Add the commodity to the user's viewing history
      * @apiName addViewing
      * @apiGroup commodity
      *
      * @apiParam {String} commodityId The id of the commodity.
-     * @apiParam {String} userId The id of the user.
+     * @apiParam {String} token Session token returned by login.
      * @apiSuccessExample {json} Success-Response:
      * {
      *     "msg": "This commodity is successfully added to the user's viewing history."
@@ -263,19 +716,26 @@ public class CommodityController extends BaseController {
      *
      * @apiError {Msg} 1 Lack input.
      * @apiError {Msg} 2 Input is empty string or whitespaces.
-     * @apiError {Msg} 3 Id is not legal integer format.
+     * @apiError {Msg} 3 Commodity id is not legal integer format.
      * @apiError {Msg} 4 Commodity not found.
-     * @apiError {Msg} 4 User not found.
+     * @apiError {Msg} 4 Session expired.
+     * @apiError {Msg} 5 Viewing history is busy, the view was not recorded.
      */
     @Before(POST.class)
+    @QueryBudget(2)
     @ValidatePara(value = "commodityId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, CommodityRecordExistValidator.class})
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
     public void addViewing() {
         int commodityId = Integer.parseInt(getPara("commodityId"));
-        int userId = Integer.parseInt(getPara("userId"));
-        Timestamp create_time = new Timestamp(System.currentTimeMillis());
-        ViewingHistory newRecord = new ViewingHistory().set("commodity_id", commodityId).set("user_id", userId).set("create_time", create_time);
-        newRecord.save();
-        successResponse("msg", "This commodity is successfully added to the user's viewing history.");
+        int userId = getSessionUserId();
+        // persisted asynchronously in batches, see ViewingHistoryWriter
+        long now = System.currentTimeMillis();
+        if (ViewingHistoryWriter.me().submit(userId, commodityId, now)) {
+            CoViewEngine.me().record(userId, commodityId, now);
+            TrendingBoard.me().viewed(commodityId);
+            successResponse("msg", "This commodity is successfully added to the user's viewing history.");
+        } else {
+            errorResponse("Viewing history is busy, please try again later!");
+        }
     }
 }
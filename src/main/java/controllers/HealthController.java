@@ -0,0 +1,35 @@
+package controllers;
+
+import com.jfinal.aop.Before;
+import com.jfinal.aop.Clear;
+import com.jfinal.ext.interceptor.GET;
+import config.Warmup;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Load balancer probes, plain text and without any of the global interceptors.
+ */
+@Clear
+public class HealthController extends BaseController {
+
+    /**
+     * @api {get} /health/ready Whether the node has finished its startup warmup
+     * @apiName ready
+     * @apiGroup health
+     *
+     * @apiSuccessExample {text} Success-Response:
+     * ready
+     * @apiErrorExample {text} 503 while warming up:
+     * warming up, 1200 requests replayed
+     */
+    @Before(GET.class)
+    public void ready() {
+        if (Warmup.isReady()) {
+            renderText("ready");
+        } else {
+            getResponse().setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            renderText("warming up, " + Warmup.getRequests() + " requests replayed");
+        }
+    }
+}
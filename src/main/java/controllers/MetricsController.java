@@ -0,0 +1,34 @@
+package controllers;
+
+import annotations.ValidatePara;
+import com.jfinal.aop.Before;
+import com.jfinal.aop.Clear;
+import com.jfinal.ext.interceptor.GET;
+import com.jfinal.kit.PropKit;
+import interceptors.ResponseInterceptor;
+import metrics.MetricsRegistry;
+import validators.AdminTokenValidator;
+import validators.NullValidator;
+
+/**
+ * Prometheus scrape endpoint, plain text rather than the usual JSON envelope.
+ */
+@Clear(ResponseInterceptor.class)
+public class MetricsController extends BaseController {
+
+    /**
+     * @api {get} /metrics Metrics in the Prometheus text format
+     * @apiName metrics
+     * @apiGroup admin
+     *
+     * @apiParam {String} token Admin token.
+     * @apiError {Msg} 1 Lack input.
+     * @apiError {Msg} 2 Token is not valid.
+     */
+    @Before(GET.class)
+    @ValidatePara(value = "token", validators = {NullValidator.class, AdminTokenValidator.class})
+    public void index() {
+        int maxSqlShapes = PropKit.use("app.properties").getInt("metrics.max_sql_shapes", 50);
+        renderText(MetricsRegistry.toPrometheus(maxSqlShapes), "text/plain; version=0.0.4");
+    }
+}
@@ -1,16 +1,20 @@
 package controllers;
 
+import annotations.QueryBudget;
+import annotations.ReadFromMaster;
 import annotations.ValidatePara;
 import models.*;
 import com.jfinal.aop.Before;
 import com.jfinal.ext.interceptor.GET;
 import com.jfinal.ext.interceptor.POST;
+import com.jfinal.kit.PropKit;
+import plugins.ExistenceIndex;
+import plugins.SessionStore;
 import validators.*;
 
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.sql.Timestamp;
 import java.util.List;
 
 
@@ -18,6 +22,37 @@ import java.util.List;
  * @author Jieying Xu
  */
 public class UserController extends BaseController {
+    public static final String LOGIN_SQL = "select * from user where account=? AND password=?";
+    static final String TP_USER_SQL = "select * from tp_user where tp_id=? and type=?";
+    static final String FAVORITE_LIST_SQL = "select c.name as commodity_name, " +
+            "c.id as commodity_id, " +
+            "c.desc_img as commodity_desc_img, " +
+            "b.name as brand_name, " +
+            "b.logo as brand_logo, " +
+            "b.desc as brand_desc " +
+            "from favorite_list f " +
+            "inner join commodity c on f.commodity_id = c.id " +
+            "inner join brand b on c.brand_id = b.id " +
+            "where f.user_id = ? and f.commodity_id > ? " +
+            "order by f.commodity_id " +
+            "limit ?";
+    private static final String VIEWING_HISTORY_FROM = "select c.name, c.id, c.desc_img, v.last_view_time " +
+            "from (select commodity_id, max(create_time) as last_view_time " +
+            "from (select commodity_id, create_time from viewing_history " +
+            "where user_id = ? order by create_time desc limit ?) recent " +
+            "group by commodity_id) v " +
+            "inner join commodity c on v.commodity_id = c.id ";
+    private static final String VIEWING_HISTORY_ORDER = "order by v.last_view_time desc, c.id desc limit ?";
+    static final String VIEWING_HISTORY_SQL = VIEWING_HISTORY_FROM + VIEWING_HISTORY_ORDER;
+    static final String VIEWING_HISTORY_BEFORE_SQL = VIEWING_HISTORY_FROM +
+            "where v.last_view_time < ? or (v.last_view_time = ? and c.id < ?) " + VIEWING_HISTORY_ORDER;
+
+    /**
+     * Statements of the read actions, prepared on every pooled connection at start, see {@link plugins.PoolWarmer}.
+     */
+    public static final String[] HOT_STATEMENTS = {
+            LOGIN_SQL, TP_USER_SQL, FAVORITE_LIST_SQL, VIEWING_HISTORY_SQL, VIEWING_HISTORY_BEFORE_SQL
+    };
 
     /**
      * @api {post} /user/createAccount Create a new user account
@@ -31,7 +66,8 @@ public class UserController extends BaseController {
      * {
      *    "nickname": "jieying",
      *    "id": 2,
-     *    "account": "jieyingx@andrew.cmu.edu"
+     *    "account": "jieyingx@andrew.cmu.edu",
+     *    "token": "q1Xb0cN7Sg3yVw9mR2kLpZ4tHf6uJe8aDo5iYxQsC0E"
      * }
      * @apiError {Msg} 1 User didn't complete all fields.
      * @apiError {Msg} 2 User input is empty string or whitespaces.
@@ -39,6 +75,7 @@ public class UserController extends BaseController {
      * @apiError {Msg} 4 Account is not a valid email address.
      */
     @Before(POST.class)
+    @QueryBudget(2)
     @ValidatePara(value = "account", validators = {NullValidator.class, EmptyStringValidator.class})
     @ValidatePara(value = "nickname", validators = {NullValidator.class, EmptyStringValidator.class})
     @ValidatePara(value = "password", validators = {NullValidator.class, EmptyStringValidator.class})
@@ -64,6 +101,7 @@ public class UserController extends BaseController {
                 User newUser = new User();
                 newUser.set("account", account).set("nickname", nickname).set("password", password).save();
                 newUser.remove("password");
+                newUser.put("token", SessionStore.me().create(newUser.getInt("id")));
                 successResponse(newUser);
             }
         }
@@ -81,33 +119,59 @@ public class UserController extends BaseController {
      * {
      *    "nickname": "jieying",
      *    "id": 2,
-     *    "account": "jieyingx@andrew.cmu.edu"
+     *    "account": "jieyingx@andrew.cmu.edu",
+     *    "token": "q1Xb0cN7Sg3yVw9mR2kLpZ4tHf6uJe8aDo5iYxQsC0E"
      * }
      * @apiError {Msg} 1 User didn't complete all fields.
      * @apiError {Msg} 2 User input is empty string or whitespaces.
      * @apiError {Msg} 3 User input doesn't correspond to any database record.
      */
     @Before(GET.class)
+    @ReadFromMaster
+    @QueryBudget(1)
     @ValidatePara(value = "account", validators = {NullValidator.class, EmptyStringValidator.class})
     @ValidatePara(value = "password", validators = {NullValidator.class, EmptyStringValidator.class})
     public void login() {
         String account = getPara("account");
         String password = getPara("password");
-        User myUser = User.dao.findFirst("select * from user where account=? AND password=?", account, password);
+        User myUser = User.dao.findFirst(LOGIN_SQL, account, password);
         if (myUser == null) {
             errorResponse("Account/Password combination doesn't exist!");
         } else {
             myUser.remove("password");
+            myUser.put("token", SessionStore.me().create(myUser.getInt("id")));
             successResponse(myUser);
         }
     }
 
+    /**
+     * @api {post} /user/logout End the session of a token
+     * @apiName logout
+     * @apiGroup user
+     *
+     * @apiParam {String} token Session token returned by login.
+     *
+     * @apiSuccessExample {json} Success-Response:
+     * {
+     *    "msg": "Logged out!"
+     * }
+     * @apiError {Json} 1 Lack input.
+     * @apiError {Json} 2 Input is empty string or whitespaces.
+     */
+    @Before(POST.class)
+    @QueryBudget(0)
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class})
+    public void logout() {
+        SessionStore.me().remove(getPara("token").trim());
+        successResponse("msg", "Logged out!");
+    }
+
     /**
      * @api {post} /user/changeNickname Change user's nickname
      * @apiName changeNickname
      * @apiGroup user
      *
-     * @apiParam {String} userId Current user's id.
+     * @apiParam {String} token Session token returned by login.
      * @apiParam {String} newNickname User input new nickname.
      *
      * @apiSuccessExample {json} Success-Response:
@@ -118,16 +182,20 @@ public class UserController extends BaseController {
      * }
      * @apiError {Json} 1 User didn't complete all fields.
      * @apiError {Json} 2 User input is empty string or whitespaces.
-     * @apiError {Json} 3 userId must be an integer.
-     * @apiError {Json} 4 Provided user id is not found in the database.
+     * @apiError {Json} 3 Session expired.
+     * @apiError {Json} 4 User not found, the session is ended.
      */
     @Before(POST.class)
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @QueryBudget(2)
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
     @ValidatePara(value = "newNickname", validators = {NullValidator.class, EmptyStringValidator.class})
     public void changeNickname() {
-        String userIdStr = getPara("userId");
         String newNickname = getPara("newNickname");
-        User myUser = User.dao.findById(Integer.parseInt(userIdStr));
+        User myUser = getSessionUser();
+        if (myUser == null) {
+            errorResponse("User not found!");
+            return;
+        }
         myUser.set("nickname", newNickname).update();
         myUser.remove("password");
         successResponse(myUser);
@@ -138,7 +206,9 @@ public class UserController extends BaseController {
      * @apiName changePassword
      * @apiGroup user
      *
-     * @apiParam {String} userId Current user's id.
+     * Ends every other session of the user, the one of the request stays open.
+     *
+     * @apiParam {String} token Session token returned by login.
      * @apiParam {String} oldPassword User input old password.
      * @apiParam {String} newPassword User input new password.
      *
@@ -149,25 +219,31 @@ public class UserController extends BaseController {
      *
      * @apiError {Json} 1 User didn't complete all fields.
      * @apiError {Json} 2 User input is empty string or whitespaces.
-     * @apiError {Json} 3 userId must be an integer.
-     * @apiError {Json} 4 Provided user id is not found in the database.
-     * @apiError {Json} 5 User input old password is not compatible with database record.
+     * @apiError {Json} 3 Session expired.
+     * @apiError {Json} 4 User input old password is not compatible with database record.
+     * @apiError {Json} 5 User not found, the session is ended.
      */
     @Before(POST.class)
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @QueryBudget(2)
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
     @ValidatePara(value = "oldPassword", validators = {NullValidator.class, EmptyStringValidator.class})
     @ValidatePara(value = "newPassword", validators = {NullValidator.class, EmptyStringValidator.class})
     public void changePassword() {
-        String userIdStr = getPara("userId");
         String oldPassword = getPara("oldPassword");
         String newPassword = getPara("newPassword");
-        User myUser = User.dao.findById(Integer.parseInt(userIdStr));
+        User myUser = getSessionUser();
+        if (myUser == null) {
+            errorResponse("User not found!");
+            return;
+        }
 
         String userOldPassword = myUser.getStr("password");
         if (!userOldPassword.equals(oldPassword)) {
             errorResponse("Password not compatible!");
         } else {
             myUser.set("password", newPassword).update();
+            // sessions opened with the old password, e.g. on a lost device, are ended
+            SessionStore.me().removeOthers(myUser.getInt("id"), getPara("token").trim());
             successResponse("msg", "Password successfully reset!");
         }
     }
@@ -184,7 +260,8 @@ public class UserController extends BaseController {
      * {
      *    "nickname": "jieying",
      *    "id": 2,
-     *    "account": "jieyingx@andrew.cmu.edu"
+     *    "account": "jieyingx@andrew.cmu.edu",
+     *    "token": "q1Xb0cN7Sg3yVw9mR2kLpZ4tHf6uJe8aDo5iYxQsC0E"
      * }
      *
      * @apiError {Json} 1 Lack input.
@@ -192,12 +269,14 @@ public class UserController extends BaseController {
      * @apiError {Json} 1 Third-party user not found in the records.
      */
     @Before(GET.class)
+    @ReadFromMaster
+    @QueryBudget(2)
     @ValidatePara(value = "tpId", validators = {NullValidator.class, EmptyStringValidator.class})
     @ValidatePara(value = "type", validators = {NullValidator.class, EmptyStringValidator.class, TpTypeValidator.class})
     public void loginWithTpId() {
         String tpId = getPara("tpId");
         String type = getPara("type");
-        TpUser tpUser = TpUser.dao.findFirst("select * from tp_user where tp_id=? and type=?", tpId, type);
+        TpUser tpUser = TpUser.dao.findFirst(TP_USER_SQL, tpId, type);
         if (tpUser == null) {
             errorResponse("Third-party user not found!");
         } else {
@@ -207,6 +286,7 @@ public class UserController extends BaseController {
                 errorResponse("User not found!");
             } else {
                 myUser.remove("password");
+                myUser.put("token", SessionStore.me().create(userId));
                 successResponse(myUser);
             }
         }
@@ -219,7 +299,7 @@ public class UserController extends BaseController {
      *
      * @apiParam {String} tpId User's third-party id.
      * @apiParam {String} type User's third-party service type.
-     * @apiParam {String} userId User's user id.
+     * @apiParam {String} token Session token returned by login.
      *
      * @apiSuccessExample {json} Success-Response:
      * {
@@ -229,19 +309,25 @@ public class UserController extends BaseController {
      * }
      * @apiError {Json} 1 Lack input parameters.
      * @apiError {Json} 2 Input is empty string or whitespaces.
-     * @apiError {Json} 3 Input userId is not legal integer format.
-     * @apiError {Json} 4 User not found.
-     * @apiError {Json} 5 User id and type combination already exists.
-     * @apiError {Json} 6 Third-party id already exists.
+     * @apiError {Json} 3 Session expired.
+     * @apiError {Json} 4 User id and type combination already exists.
+     * @apiError {Json} 5 Third-party id already exists.
+     * @apiError {Json} 6 User not found, the session is ended.
      */
     @Before(POST.class)
+    @QueryBudget(4)
     @ValidatePara(value = "tpId", validators = {NullValidator.class, EmptyStringValidator.class})
     @ValidatePara(value = "type", validators = {NullValidator.class, EmptyStringValidator.class, TpTypeValidator.class})
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
     public void bindTpIdWithUserId() {
         String tpId = getPara("tpId");
         String type = getPara("type");
-        int userId = Integer.parseInt(getPara("userId"));
+        User myUser = getSessionUser();
+        if (myUser == null) {
+            errorResponse("User not found!");
+            return;
+        }
+        int userId = myUser.getInt("id");
         if (TpUser.dao.findFirst("select * from tp_user where type=? and user_id=?", type, userId) != null) {
             errorResponse("User has already bind a " + type + " account!");
         } else if (TpUser.dao.findFirst("select * from tp_user where tp_id=?", tpId) != null) {
@@ -249,7 +335,7 @@ public class UserController extends BaseController {
         } else {
             TpUser newRecord = new TpUser();
             newRecord.set("tp_id", tpId).set("user_id", userId).set("type", type).save();
-            User myUser = User.dao.findById(userId);
+            ExistenceIndex.me().addTpId(tpId);
             successResponse(myUser.remove("password"));
         }
     }
@@ -259,45 +345,53 @@ public class UserController extends BaseController {
      * @apiName favoriteList
      * @apiGroup user
      *
-     * @apiParam {String} userId User's user id.
+     * Favorites are ordered by commodity id. The response envelope carries "next", the afterCommodityId
+     * of the following page, unless this is the last page.
+     *
+     * @apiParam {String} token Session token returned by login.
+     * @apiParam {String} [afterCommodityId] Only return favorites whose commodity id is greater than this one.
+     * @apiParam {String} [limit] Page size, 50 by default and at most 200.
      *
      * @apiSuccessExample {json} Success-Response:
      * [
      *     {
-     *         "name": "Dior999",
-     *         "id": 1,
-     *         "desc_img": "www.exampleImageUrl.com"
+     *         "commodity_name": "Dior999",
+     *         "commodity_id": 1,
+     *         "commodity_desc_img": "www.exampleImageUrl.com",
+     *         "brand_name": "chanel",
+     *         "brand_logo": "www.example.com",
+     *         "brand_desc": "A French Luxury Brand."
      *     },
      *     {
-     *         "name": "YSL102",
-     *         "id": 2,
-     *         "desc_img": "www.exampleImageUrl.com"
+     *         "commodity_name": "YSL102",
+     *         "commodity_id": 2,
+     *         "commodity_desc_img": "www.exampleImageUrl.com",
+     *         "brand_name": "YSL",
+     *         "brand_logo": "www.example.com",
+     *         "brand_desc": "A French Luxury Brand."
      *     }
      * ]
      * @apiError {Json} 1 Lack input parameters.
      * @apiError {Json} 2 Input is empty string or whitespaces.
-     * @apiError {Json} 3 Input userId is not legal integer format.
-     * @apiError {Json} 4 User not found.
+     * @apiError {Json} 3 Input afterCommodityId/limit is not legal integer format.
+     * @apiError {Json} 4 Session expired.
      */
     @Before(GET.class)
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @QueryBudget(2)
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
+    @ValidatePara(value = "afterCommodityId", validators = {OptionalIntegerFormatValidator.class})
+    @ValidatePara(value = "limit", validators = {OptionalIntegerFormatValidator.class})
     public void favoriteList() {
-        int userId = Integer.parseInt(getPara("userId"));
-        List<FavoriteList> commodityIdList = FavoriteList.dao.find("select commodity_id from favorite_list where user_id = ?", userId);
-        List<Commodity> favoriteList = new ArrayList<Commodity>();
-        for (FavoriteList f: commodityIdList) {
-            int commodityId = f.getInt("commodity_id");
-            String sql = "Select c.name as commodity_name," +
-                    "c.id as commodity_id," +
-                    "c.desc_img as commodity_desc_img," +
-                    "b.name as brand_name," +
-                    "b.logo as brand_logo," +
-                    "b.desc as brand_desc " +
-                    "from commodity c inner join brand b on c.brand_id = b.id " +
-                    "where c.id = ?";
-            favoriteList.add(Commodity.dao.findFirst(sql, commodityId));
+        int userId = getSessionUserId();
+        int afterCommodityId = getIntPara("afterCommodityId", 0);
+        int limit = getLimitPara("limit");
+        List<Commodity> favoriteList = Commodity.dao.find(FAVORITE_LIST_SQL, userId, afterCommodityId, limit + 1);
+        Object next = null;
+        if (favoriteList.size() > limit) {
+            favoriteList = favoriteList.subList(0, limit);
+            next = favoriteList.get(limit - 1).get("commodity_id");
         }
-        successResponse(favoriteList);
+        pageResponse(favoriteList, next);
     }
 
     /**
@@ -305,35 +399,56 @@ public class UserController extends BaseController {
      * @apiName viewingHistory
      * @apiGroup user
      *
-     * @apiParam {String} userId User's user id.
+     * Repeated views of a commodity are collapsed into its latest view. Only the user's most recent
+     * views (viewing_history.raw_view_window in app.properties) are considered. The window counts raw
+     * views, repeats included, so it bounds the rows read per request and a user who keeps viewing the
+     * same few commodities sees fewer commodities than the window.
+     *
+     * @apiParam {String} token Session token returned by login.
+     * @apiParam {String} [before] Cursor, the last_view_time of the last item of the previous page.
+     * @apiParam {String} [beforeCommodityId] Cursor tie breaker, the id of the last item of the previous page.
+     * @apiParam {String} [limit] Page size, 50 by default and at most 200.
      *
      * @apiSuccessExample {json} Success-Response:
      * [
      *     {
      *         "name": "Dior999",
      *         "id": 1,
-     *         "desc_img": "www.exampleImageUrl.com"
+     *         "desc_img": "www.exampleImageUrl.com",
+     *         "last_view_time": 1525132800000
      *     },
      *     {
      *         "name": "YSL102",
      *         "id": 2,
-     *         "desc_img": "www.exampleImageUrl.com"
+     *         "desc_img": "www.exampleImageUrl.com",
+     *         "last_view_time": 1525046400000
      *     }
      * ]
      * @apiError {Json} 1 Lack input parameters.
      * @apiError {Json} 2 Input is empty string or whitespaces.
-     * @apiError {Json} 3 Input userId is not legal integer format.
-     * @apiError {Json} 4 User not found.
+     * @apiError {Json} 3 Input before/beforeCommodityId/limit is not legal number format.
+     * @apiError {Json} 4 Session expired.
      */
     @Before(GET.class)
-    @ValidatePara(value = "userId", validators = {NullValidator.class, EmptyStringValidator.class, IntegerFormatValidator.class, UserRecordExistValidator.class})
+    @QueryBudget(2)
+    @ValidatePara(value = "token", validators = {NullValidator.class, EmptyStringValidator.class, SessionValidator.class})
+    @ValidatePara(value = "before", validators = {OptionalLongFormatValidator.class})
+    @ValidatePara(value = "beforeCommodityId", validators = {OptionalIntegerFormatValidator.class})
+    @ValidatePara(value = "limit", validators = {OptionalIntegerFormatValidator.class})
     public void viewingHistory() {
-        int userId = Integer.parseInt(getPara("userId"));
-        List<ViewingHistory> commodityIdList = ViewingHistory.dao.find("select commodity_id from viewing_history where user_id = ? order by create_time desc", userId);
-        List<Commodity> viewedCommodities = new ArrayList<Commodity>();
-        for (ViewingHistory v: commodityIdList) {
-            int commodityId = v.getInt("commodity_id");
-            viewedCommodities.add(Commodity.dao.findByIdLoadColumns(commodityId, "name, id, desc_img"));
+        int userId = getSessionUserId();
+        int limit = getLimitPara("limit");
+        int window = PropKit.use("app.properties").getInt("viewing_history.raw_view_window", 500);
+        List<Commodity> viewedCommodities;
+        if (getPara("before") == null) {
+            viewedCommodities = Commodity.dao.find(VIEWING_HISTORY_SQL, userId, window, limit);
+        } else {
+            Timestamp before = new Timestamp(getLongPara("before", 0));
+            int beforeCommodityId = getIntPara("beforeCommodityId", Integer.MAX_VALUE);
+            viewedCommodities = Commodity.dao.find(VIEWING_HISTORY_BEFORE_SQL, userId, window, before, before, beforeCommodityId, limit);
+        }
+        for (Commodity c: viewedCommodities) {
+            c.put("last_view_time", c.getTimestamp("last_view_time").getTime());
         }
         successResponse(viewedCommodities);
     }
@@ -0,0 +1,39 @@
+package filters;
+
+import com.alibaba.druid.filter.FilterEventAdapter;
+import com.alibaba.druid.proxy.jdbc.StatementProxy;
+
+/**
+ * Counts the statements executed by each thread, read by {@link interceptors.QueryBudgetInterceptor}
+ * as the difference between two calls of {@link #count()}.
+ */
+public class QueryCountFilter extends FilterEventAdapter {
+    private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * @return statements executed by the current thread so far
+     */
+    public static long count() {
+        return COUNT.get()[0];
+    }
+
+    @Override
+    protected void statementExecuteBefore(StatementProxy statement, String sql) {
+        COUNT.get()[0]++;
+    }
+
+    @Override
+    protected void statementExecuteQueryBefore(StatementProxy statement, String sql) {
+        COUNT.get()[0]++;
+    }
+
+    @Override
+    protected void statementExecuteUpdateBefore(StatementProxy statement, String sql) {
+        COUNT.get()[0]++;
+    }
+
+    @Override
+    protected void statementExecuteBatchBefore(StatementProxy statement) {
+        COUNT.get()[0]++;
+    }
+}
@@ -0,0 +1,299 @@
+package filters;
+
+import com.alibaba.druid.filter.FilterEventAdapter;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+import com.alibaba.druid.proxy.jdbc.*;
+import com.alibaba.druid.sql.visitor.ParameterizedOutputVisitorUtils;
+import com.jfinal.kit.LogKit;
+import interceptors.MetricsInterceptor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Captures statements slower than a threshold, with their parameters, calling action and elapsed time,
+ * into a ring buffer, and aggregates them per SQL shape (Druid's parameterized form of the statement).
+ * Parameters bound to a password or token column are kept as {@link #MASKED}, never in plain text.
+ *
+ * When explain is on, the first slow execution of each SELECT shape is explained in the background on a
+ * raw connection of the pool, so neither the request nor the other filters are involved.
+ */
+public class SlowQueryFilter extends FilterEventAdapter {
+    public static final String MASKED = "***";
+    private static final Pattern INSERT = Pattern.compile(
+            "(?is)\\s*(?:insert|replace)\\s+into\\s+[^(]+\\(([^)]*)\\)\\s*values\\s*\\((.*)\\)\\s*");
+    /**
+     * The column a placeholder is compared with or assigned to, matched against the SQL before the placeholder.
+     */
+    private static final Pattern BOUND_COLUMN = Pattern.compile("(?i)(\\w+)[`\"]?\\s*(?:=|<>|!=|<=|>=|<|>|like)\\s*$");
+
+    private static volatile SlowQueryFilter me;
+
+    private final long thresholdNanos;
+    private final boolean explain;
+    private final int maxShapes;
+    private final AtomicReferenceArray<SlowQuery> recent;
+    private final AtomicLong written = new AtomicLong();
+    private final ConcurrentHashMap<String, Shape> shapes = new ConcurrentHashMap<>();
+    private final ThreadLocal<long[]> startNanos = ThreadLocal.withInitial(() -> new long[1]);
+    private final ExecutorService explainer;
+    private volatile DruidDataSource dataSource;
+
+    public SlowQueryFilter(long thresholdMillis, int bufferSize, int maxShapes, boolean explain) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.recent = new AtomicReferenceArray<>(bufferSize);
+        this.maxShapes = maxShapes;
+        this.explain = explain;
+        this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64), r -> {
+            Thread t = new Thread(r, "slow-query-explain");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        me = this;
+    }
+
+    public static SlowQueryFilter me() {
+        return me;
+    }
+
+    @Override
+    public void init(DataSourceProxy dataSource) {
+        // shared by master and the replicas, which have the same schema, explain on the first one
+        if (this.dataSource == null && dataSource instanceof DruidDataSource) {
+            this.dataSource = (DruidDataSource) dataSource;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        explainer.shutdownNow();
+    }
+
+    /**
+     * @return the captured executions, newest first
+     */
+    public List<SlowQuery> getRecent() {
+        List<SlowQuery> list = new ArrayList<>(recent.length());
+        long end = written.get();
+        for (long i = end - 1; i >= 0 && i >= end - recent.length(); i--) {
+            SlowQuery q = recent.get((int) (i % recent.length()));
+            if (q != null) {
+                list.add(q);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the shapes with the highest total slow time first
+     */
+    public List<Shape> getTopShapes(int n) {
+        List<Shape> list = new ArrayList<>(shapes.values());
+        list.sort((a, b) -> Long.compare(b.totalNanos.get(), a.totalNanos.get()));
+        return list.size() > n ? list.subList(0, n) : list;
+    }
+
+    @Override
+    protected void statementExecuteBefore(StatementProxy statement, String sql) {
+        startNanos.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    protected void statementExecuteQueryBefore(StatementProxy statement, String sql) {
+        startNanos.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    protected void statementExecuteUpdateBefore(StatementProxy statement, String sql) {
+        startNanos.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    protected void statementExecuteAfter(StatementProxy statement, String sql, boolean result) {
+        check(statement, sql);
+    }
+
+    @Override
+    protected void statementExecuteQueryAfter(StatementProxy statement, String sql, ResultSetProxy resultSet) {
+        check(statement, sql);
+    }
+
+    @Override
+    protected void statementExecuteUpdateAfter(StatementProxy statement, String sql, int updateCount) {
+        check(statement, sql);
+    }
+
+    private void check(StatementProxy statement, String sql) {
+        long elapsed = System.nanoTime() - startNanos.get()[0];
+        if (elapsed < thresholdNanos) {
+            return;
+        }
+        Object[] params = parametersOf(statement, sql);
+        SlowQuery query = new SlowQuery(sql, params, MetricsInterceptor.currentAction(), elapsed, System.currentTimeMillis());
+        recent.set((int) (written.getAndIncrement() % recent.length()), query);
+
+        String shapeSql = shapeOf(sql);
+        Shape shape = shapes.get(shapeSql);
+        if (shape == null) {
+            if (shapes.size() >= maxShapes) {
+                return;
+            }
+            Shape created = new Shape(shapeSql);
+            shape = shapes.putIfAbsent(shapeSql, created);
+            if (shape == null) {
+                shape = created;
+                if (explain && dataSource != null && sql.trim().regionMatches(true, 0, "select", 0, 6)) {
+                    Shape target = created;
+                    explainer.execute(() -> target.explain = explain(sql, params));
+                }
+            }
+        }
+        shape.record(query);
+    }
+
+    private String shapeOf(String sql) {
+        try {
+            return ParameterizedOutputVisitorUtils.parameterize(sql, dataSource == null ? null : dataSource.getDbType());
+        } catch (Exception e) {
+            return sql;
+        }
+    }
+
+    private static Object[] parametersOf(StatementProxy statement, String sql) {
+        int size = statement.getParametersSize();
+        Object[] params = new Object[size];
+        boolean[] secret = secretParameters(sql, size);
+        Map<Integer, JdbcParameter> map = statement.getParameters();
+        for (int i = 0; i < size; i++) {
+            JdbcParameter p = map.get(i);
+            params[i] = p == null || p.getValue() == null ? null : secret[i] ? MASKED : p.getValue();
+        }
+        return params;
+    }
+
+    /**
+     * Finds the placeholders bound to a password or token column: the values of an insert by their position
+     * in the column list, any other placeholder by the column it is compared with or assigned to.
+     */
+    private static boolean[] secretParameters(String sql, int size) {
+        boolean[] secret = new boolean[size];
+        Matcher insert = INSERT.matcher(sql);
+        if (insert.matches()) {
+            String[] columns = insert.group(1).split(",");
+            String[] values = insert.group(2).split(",");
+            for (int i = 0, p = 0; i < values.length && p < size; i++) {
+                if (values[i].trim().equals("?")) {
+                    secret[p++] = i < columns.length && isSecret(columns[i]);
+                }
+            }
+            return secret;
+        }
+        for (int i = sql.indexOf('?'), p = 0; i >= 0 && p < size; i = sql.indexOf('?', i + 1), p++) {
+            Matcher column = BOUND_COLUMN.matcher(sql.substring(Math.max(0, i - 64), i));
+            secret[p] = column.find() && isSecret(column.group(1));
+        }
+        return secret;
+    }
+
+    private static boolean isSecret(String column) {
+        String name = column.toLowerCase();
+        return name.contains("password") || name.contains("token");
+    }
+
+    private String explain(String sql, Object[] params) {
+        try (DruidPooledConnection pooled = dataSource.getConnection()) {
+            Connection conn = pooled.getConnection();
+            if (conn instanceof ConnectionProxy) {
+                // bypass the filters, an EXPLAIN is neither a slow query nor part of any action
+                conn = ((ConnectionProxy) conn).getRawObject();
+            }
+            try (PreparedStatement pst = conn.prepareStatement("explain " + sql)) {
+                for (int i = 0; i < params.length; i++) {
+                    pst.setObject(i + 1, params[i]);
+                }
+                try (ResultSet rs = pst.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    StringBuilder sb = new StringBuilder();
+                    while (rs.next()) {
+                        for (int i = 1; i <= meta.getColumnCount(); i++) {
+                            sb.append(i == 1 ? "" : ", ").append(meta.getColumnLabel(i)).append('=').append(rs.getObject(i));
+                        }
+                        sb.append('\n');
+                    }
+                    return sb.toString();
+                }
+            }
+        } catch (Exception e) {
+            LogKit.warn("Can not explain " + sql + ": " + e.getMessage());
+            return "explain failed: " + e.getMessage();
+        }
+    }
+
+    public static final class SlowQuery {
+        public final String sql;
+        public final Object[] params;
+        public final String action;
+        public final long elapsedNanos;
+        public final long time;
+
+        SlowQuery(String sql, Object[] params, String action, long elapsedNanos, long time) {
+            this.sql = sql;
+            this.params = params;
+            this.action = action;
+            this.elapsedNanos = elapsedNanos;
+            this.time = time;
+        }
+    }
+
+    public static final class Shape {
+        public final String sql;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        volatile SlowQuery last;
+        volatile String explain;
+
+        Shape(String sql) {
+            this.sql = sql;
+        }
+
+        void record(SlowQuery query) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(query.elapsedNanos);
+            maxNanos.accumulateAndGet(query.elapsedNanos, Math::max);
+            last = query;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public SlowQuery getLast() {
+            return last;
+        }
+
+        /**
+         * @return EXPLAIN output of the first slow execution, null if none was taken (yet)
+         */
+        public String getExplain() {
+            return explain;
+        }
+    }
+}
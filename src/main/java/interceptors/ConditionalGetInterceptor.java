@@ -0,0 +1,108 @@
+package interceptors;
+
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.core.Controller;
+import com.jfinal.kit.Prop;
+import com.jfinal.kit.PropKit;
+import config.Const;
+import plugins.CatalogCache;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ETag support for actions whose response only depends on the catalog and the query string.
+ * Must run before the other global interceptors: when If-None-Match matches, the action, its validators
+ * and the JSON rendering are all skipped and a bare 304 is returned.
+ *
+ * The routes are listed in etag.routes of app.properties, and cache_control.&lt;route&gt; sets an optional
+ * Cache-Control header for any route. A response that an action read from the database, because the
+ * snapshot did not have it yet, is marked with {@link #FROM_DATABASE_ATTR} and gets no ETag: the snapshot
+ * version would not change with those rows.
+ */
+public class ConditionalGetInterceptor implements Interceptor {
+    public static final String FROM_DATABASE_ATTR = "_fromDatabase";
+
+    private final Set<String> etagRoutes = new HashSet<>();
+    private final Map<String, String> cacheControls = new HashMap<>();
+
+    public ConditionalGetInterceptor() {
+        Prop app = PropKit.use("app.properties");
+        for (String route: app.get("etag.routes", "").split(",")) {
+            if (!route.trim().isEmpty()) {
+                etagRoutes.add(route.trim());
+            }
+        }
+        for (Object key: app.getProperties().keySet()) {
+            String name = key.toString();
+            if (name.startsWith("cache_control.")) {
+                cacheControls.put(name.substring("cache_control.".length()), app.get(name));
+            }
+        }
+    }
+
+    @Override
+    public void intercept(Invocation invocation) {
+        String actionKey = invocation.getActionKey();
+        Controller c = invocation.getController();
+        HttpServletRequest request = c.getRequest();
+        boolean conditional = etagRoutes.contains(actionKey) && "GET".equals(request.getMethod())
+                && CatalogCache.me() != null;
+        String etag = null;
+        if (conditional) {
+            etag = etag(actionKey, request.getQueryString());
+            if (matches(request.getHeader("If-None-Match"), etag)) {
+                HttpServletResponse response = c.getResponse();
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                response.setHeader("ETag", etag);
+                setCacheControl(response, actionKey);
+                c.renderNull();
+                return;
+            }
+        }
+
+        invocation.invoke();
+
+        // errors, e.g. failed validations, are not cacheable
+        Integer code = c.getAttr("code");
+        if (code != null && code == Const.CODE_SUCCESS) {
+            if (etag != null && c.getAttr(FROM_DATABASE_ATTR) == null) {
+                c.getResponse().setHeader("ETag", etag);
+            }
+            setCacheControl(c.getResponse(), actionKey);
+        }
+    }
+
+    private String etag(String actionKey, String queryString) {
+        String target = queryString == null ? actionKey : actionKey + "?" + queryString;
+        return "\"" + CatalogCache.me().snapshot().getVersion() + "-" + Integer.toHexString(target.hashCode()) + "\"";
+    }
+
+    private void setCacheControl(HttpServletResponse response, String actionKey) {
+        String cacheControl = cacheControls.get(actionKey);
+        if (cacheControl != null) {
+            response.setHeader("Cache-Control", cacheControl);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate: ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,38 @@
+package interceptors;
+
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import config.Const;
+import metrics.ActionMetrics;
+import metrics.MetricsRegistry;
+
+/**
+ * Records latency and outcome of every action. Must be the first global interceptor so that the time
+ * spent in the others is included. Rendering happens after the chain and is not part of the latency.
+ */
+public class MetricsInterceptor implements Interceptor {
+    private static final ThreadLocal<String> CURRENT_ACTION = new ThreadLocal<>();
+
+    /**
+     * @return key of the action running on this thread, null outside of actions
+     */
+    public static String currentAction() {
+        return CURRENT_ACTION.get();
+    }
+
+    @Override
+    public void intercept(Invocation invocation) {
+        ActionMetrics metrics = MetricsRegistry.action(invocation.getActionKey());
+        CURRENT_ACTION.set(invocation.getActionKey());
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            invocation.invoke();
+            Integer code = invocation.getController().getAttr("code");
+            error = code != null && code == Const.CODE_ERROR;
+        } finally {
+            metrics.record((System.nanoTime() - start) / 1000, error);
+            CURRENT_ACTION.remove();
+        }
+    }
+}
@@ -3,45 +3,103 @@ package interceptors;
 import annotations.ValidatePara;
 import com.jfinal.aop.Invocation;
 import com.jfinal.aop.Interceptor;
+import com.jfinal.core.Action;
 import com.jfinal.core.Controller;
+import com.jfinal.core.JFinal;
+import config.Const;
+import validators.AbstractValidator;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Runs the {@link ValidatePara} rules of an action. The rules of every action are resolved once into
+ * chains of shared validator instances, see {@link #compileAll()}, so a request only walks arrays.
+ *
  * @author Jieying Xu
  */
 public class ParaValidateInterceptor implements Interceptor{
+    private static final ParaRule[] NO_RULES = new ParaRule[0];
+
+    private final Map<Class<?>, AbstractValidator> validators = new ConcurrentHashMap<>();
+    private final Map<Method, ParaRule[]> chains = new ConcurrentHashMap<>();
+
+    /**
+     * Compiles the chains of all registered actions, called once routes are configured.
+     */
+    public void compileAll() {
+        String[] urlPara = new String[1];
+        for (String actionKey: JFinal.me().getAllActionKeys()) {
+            Action action = JFinal.me().getAction(actionKey, urlPara);
+            if (action != null) {
+                chains.computeIfAbsent(action.getMethod(), this::compile);
+            }
+        }
+    }
+
     @Override
     public void intercept(Invocation invocation) {
         Controller c = invocation.getController();
-        ValidatePara[] vpList = invocation.getMethod().getDeclaredAnnotationsByType(ValidatePara.class);
-        for(ValidatePara vp: vpList) {
-            String paraName = vp.value();
-            String paraValue = c.getPara(paraName);
-            Class[] clazzList = vp.validators();
-            for(Class clazz: clazzList) {
-                try {
-                    Method validateMt = clazz.getDeclaredMethod("validate", Object.class);
-                    Object flag = validateMt.invoke(clazz.newInstance(), paraValue);
-                    if (!(boolean)flag) {
-                        Method msgMt = clazz.getDeclaredMethod("getErrorMsg", String.class);
-                        String errMsg = (String)(msgMt.invoke(clazz.newInstance(), paraName));
-                        Map<String, Object> result = new HashMap<>();
-                        result.put("code", -1);
-                        result.put("msg", errMsg);
-                        c.renderJson(result);
-                        return;
-                    }
-                } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException | InstantiationException e) {
-                    c.renderJson("enter catch block");
-                    e.printStackTrace();
+        ParaRule[] rules = chains.get(invocation.getMethod());
+        if (rules == null) {
+            rules = chains.computeIfAbsent(invocation.getMethod(), this::compile);
+        }
+        for (ParaRule rule: rules) {
+            String paraValue = c.getPara(rule.paraName);
+            for (AbstractValidator validator: rule.validators) {
+                if (!validator.validate(c, paraValue)) {
+                    String errMsg = validator.getErrorMsg(rule.paraName);
+                    // also visible to the outer interceptors, e.g. metrics counting errors
+                    c.setAttr("code", Const.CODE_ERROR);
+                    c.setAttr("msg", errMsg);
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("code", Const.CODE_ERROR);
+                    result.put("msg", errMsg);
+                    c.renderJson(result);
                     return;
                 }
             }
         }
         invocation.invoke();
     }
+
+    private ParaRule[] compile(Method method) {
+        ValidatePara[] vpList = method.getDeclaredAnnotationsByType(ValidatePara.class);
+        if (vpList.length == 0) {
+            return NO_RULES;
+        }
+        ParaRule[] rules = new ParaRule[vpList.length];
+        for (int i = 0; i < vpList.length; i++) {
+            Class<?>[] clazzList = vpList[i].validators();
+            AbstractValidator[] chain = new AbstractValidator[clazzList.length];
+            for (int j = 0; j < clazzList.length; j++) {
+                chain[j] = validators.computeIfAbsent(clazzList[j], ParaValidateInterceptor::instantiate);
+            }
+            rules[i] = new ParaRule(vpList[i].value(), chain);
+        }
+        return rules;
+    }
+
+    private static AbstractValidator instantiate(Class<?> clazz) {
+        if (!AbstractValidator.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException(clazz.getName() + " is not a validator");
+        }
+        try {
+            return clazz.asSubclass(AbstractValidator.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can not create validator " + clazz.getName(), e);
+        }
+    }
+
+    private static final class ParaRule {
+        final String paraName;
+        final AbstractValidator[] validators;
+
+        ParaRule(String paraName, AbstractValidator[] validators) {
+            this.paraName = paraName;
+            this.validators = validators;
+        }
+    }
 }
@@ -0,0 +1,43 @@
+package interceptors;
+
+import annotations.QueryBudget;
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.kit.LogKit;
+import filters.QueryCountFilter;
+import metrics.MetricsRegistry;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the statements executed by an action, as counted by {@link QueryCountFilter}, with its
+ * {@link QueryBudget}, or with the default budget when it has none. The count goes to the action's
+ * metrics and every violation is logged; the response is left alone, the action and its writes have
+ * already run by then. N+1 regressions are caught by the integration tests, which fail on any violation.
+ */
+public class QueryBudgetInterceptor implements Interceptor {
+    private final int defaultBudget;
+    private final Map<Method, Integer> budgets = new ConcurrentHashMap<>();
+
+    public QueryBudgetInterceptor(int defaultBudget) {
+        this.defaultBudget = defaultBudget;
+    }
+
+    @Override
+    public void intercept(Invocation invocation) {
+        long before = QueryCountFilter.count();
+        invocation.invoke();
+        long executed = QueryCountFilter.count() - before;
+
+        int limit = budgets.computeIfAbsent(invocation.getMethod(), m -> {
+            QueryBudget budget = m.getAnnotation(QueryBudget.class);
+            return budget == null ? defaultBudget : budget.value();
+        });
+        MetricsRegistry.action(invocation.getActionKey()).recordStatements(executed, executed > limit);
+        if (executed > limit) {
+            LogKit.warn(invocation.getActionKey() + " executed " + executed + " statements, its budget is " + limit);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package interceptors;
+
+import annotations.ReadFromMaster;
+import com.jfinal.aop.Before;
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.ext.interceptor.GET;
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.DbKit;
+import plugins.ReplicaRouter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends the statements of read-only actions, the ones declared with {@code @Before(GET.class)}, to a
+ * replica chosen by {@link ReplicaRouter}. The replica connection is bound to the main config the same
+ * way a transaction binds its connection, so models and Db calls need no change. It is only checked out
+ * on the first statement, actions served from memory never touch a replica.
+ *
+ * Replicas lag behind master: a read-only action must not depend on a write made by the previous request,
+ * actions that authenticate are kept on master with {@link ReadFromMaster}, and validators relying on {@link plugins.ExistenceIndex} are safe because the app's own inserts are
+ * added to the index.
+ */
+public class ReadReplicaInterceptor implements Interceptor {
+    private final Map<Method, Boolean> readOnly = new ConcurrentHashMap<>();
+
+    @Override
+    public void intercept(Invocation invocation) {
+        ReplicaRouter router = ReplicaRouter.me();
+        Config config = DbKit.getConfig();
+        if (router == null || config.getThreadLocalConnection() != null
+                || !readOnly.computeIfAbsent(invocation.getMethod(), ReadReplicaInterceptor::isReadOnly)) {
+            invocation.invoke();
+            return;
+        }
+        LazyConnection lazy = new LazyConnection(router, config);
+        config.setThreadLocalConnection(lazy.proxy);
+        try {
+            invocation.invoke();
+        } finally {
+            config.removeThreadLocalConnection();
+            lazy.close();
+        }
+    }
+
+    private static boolean isReadOnly(Method method) {
+        Before before = method.getAnnotation(Before.class);
+        return before != null && Arrays.asList(before.value()).contains(GET.class)
+                && method.getAnnotation(ReadFromMaster.class) == null;
+    }
+
+    private static final class LazyConnection implements InvocationHandler {
+        final Connection proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+        private final ReplicaRouter router;
+        private final Config master;
+        private Connection target;
+        private boolean fromMaster;
+
+        LazyConnection(ReplicaRouter router, Config master) {
+            this.router = router;
+            this.master = master;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+            if ("close".equals(method.getName())) {
+                // owned by the interceptor, see close()
+                return null;
+            }
+            if (target == null) {
+                target = router.getConnection();
+                if (target == null) {
+                    target = master.getDataSource().getConnection();
+                    fromMaster = true;
+                }
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        void close() {
+            if (target == null) {
+                return;
+            }
+            try {
+                target.close();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Can not release " + (fromMaster ? "master" : "replica") + " connection", e);
+            }
+        }
+    }
+}
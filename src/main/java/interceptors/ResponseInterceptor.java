@@ -1,15 +1,12 @@
 package interceptors;
 
-import annotations.ValidatePara;
 import com.jfinal.aop.Interceptor;
 import com.jfinal.aop.Invocation;
 import com.jfinal.core.Controller;
 import config.Const;
-import validators.AbstractValidator;
+import renders.JsonEnvelopeRender;
+import renders.JsonStream;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,6 +18,13 @@ public class ResponseInterceptor implements Interceptor {
         Controller c = invocation.getController();
         int code = c.getAttrForInt("code");
 
+        Object data = c.getAttr("data");
+        Object next = c.getAttr("next");
+        if (code == Const.CODE_SUCCESS && data instanceof JsonStream) {
+            c.render(new JsonEnvelopeRender(code, (JsonStream) data, next));
+            return;
+        }
+
         Map<String, Object> result = new HashMap<>();
         switch (code) {
             case Const.CODE_ERROR:
@@ -30,9 +34,12 @@ public class ResponseInterceptor implements Interceptor {
                 break;
             case Const.CODE_SUCCESS:
                 result.put("code", code);
-                result.put("data", c.getAttr("data"));
+                result.put("data", data);
+                if (next != null) {
+                    result.put("next", next);
+                }
                 break;
         }
-        c.renderJson(result);
+        c.render(new JsonEnvelopeRender(result));
     }
 }
@@ -0,0 +1,74 @@
+package kit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Growable bitmap of non-negative ints. Reads are lock-free, writes are serialized on the bitmap.
+ */
+public class IntBitmap {
+    private volatile AtomicLongArray words;
+
+    public IntBitmap() {
+        this(1024);
+    }
+
+    public IntBitmap(int initialBits) {
+        words = new AtomicLongArray(Math.max(1, (initialBits + 63) >>> 6));
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        AtomicLongArray w = words;
+        int index = value >>> 6;
+        return index < w.length() && (w.get(index) & (1L << value)) != 0;
+    }
+
+    public synchronized void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + value);
+        }
+        int index = value >>> 6;
+        AtomicLongArray w = words;
+        if (index >= w.length()) {
+            w = grow(index);
+        }
+        w.set(index, w.get(index) | (1L << value));
+    }
+
+    public synchronized void remove(int value) {
+        AtomicLongArray w = words;
+        int index = value >>> 6;
+        if (value < 0 || index >= w.length()) {
+            return;
+        }
+        w.set(index, w.get(index) & ~(1L << value));
+    }
+
+    public int cardinality() {
+        AtomicLongArray w = words;
+        int count = 0;
+        for (int i = 0; i < w.length(); i++) {
+            count += Long.bitCount(w.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * @return allocated size in bytes
+     */
+    public long sizeInBytes() {
+        return words.length() * 8L;
+    }
+
+    private AtomicLongArray grow(int index) {
+        AtomicLongArray old = words;
+        AtomicLongArray grown = new AtomicLongArray(Math.max(index + 1, old.length() * 2));
+        for (int i = 0; i < old.length(); i++) {
+            grown.set(i, old.get(i));
+        }
+        words = grown;
+        return grown;
+    }
+}
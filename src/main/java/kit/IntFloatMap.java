@@ -0,0 +1,136 @@
+package kit;
+
+import java.util.Arrays;
+
+/**
+ * Map from int to float, open addressing over primitive arrays with linear probing. Not thread-safe.
+ * Integer.MIN_VALUE can not be used as a key. Entries are never removed one by one; {@link #retainTop}
+ * rebuilds the map instead.
+ */
+public final class IntFloatMap {
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private float[] values;
+    private int size;
+
+    public IntFloatMap() {
+        this(8);
+    }
+
+    public IntFloatMap(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new float[capacity];
+    }
+
+    /**
+     * Adds delta to the value of key, 0 when absent.
+     *
+     * @return the new value
+     */
+    public float addTo(int key, float delta) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Integer.MIN_VALUE can not be a key");
+        }
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i] += delta;
+            }
+            if (keys[i] == FREE) {
+                keys[i] = key;
+                values[i] = delta;
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length << 1);
+                }
+                return delta;
+            }
+        }
+    }
+
+    public float get(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            if (keys[i] == FREE) {
+                return 0;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void scale(float factor) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= factor;
+        }
+    }
+
+    /**
+     * Keeps the n entries with the highest values, dropping the others and those below minValue.
+     */
+    public void retainTop(int n, float minValue) {
+        float[] sorted = new float[size];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                sorted[count++] = values[i];
+            }
+        }
+        Arrays.sort(sorted);
+        float threshold = Math.max(minValue, count > n ? sorted[count - n] : Float.NEGATIVE_INFINITY);
+        int[] oldKeys = keys;
+        float[] oldValues = values;
+        int kept = 0;
+        IntFloatMap rebuilt = new IntFloatMap(Math.min(n, count));
+        for (int i = 0; i < oldKeys.length && kept < n; i++) {
+            if (oldKeys[i] != FREE && oldValues[i] >= threshold) {
+                rebuilt.addTo(oldKeys[i], oldValues[i]);
+                kept++;
+            }
+        }
+        keys = rebuilt.keys;
+        values = rebuilt.values;
+        size = rebuilt.size;
+    }
+
+    /**
+     * Heap used by the map, assuming a 64-bit JVM with compressed oops.
+     */
+    public long sizeInBytes() {
+        return 24 + 2 * 16 + keys.length * 8L;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        float[] oldValues = values;
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new float[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != FREE) {
+                int i = mix(oldKeys[j]) & mask;
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
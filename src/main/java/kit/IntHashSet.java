@@ -0,0 +1,153 @@
+package kit;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of ints, open addressing over a primitive array with linear probing. Updates return a
+ * new set, so instances can be shared and read by any number of threads without synchronization.
+ */
+public final class IntHashSet {
+    public static final IntHashSet EMPTY = of(new int[0], 0);
+
+    // 0 marks a free slot, the value 0 itself is tracked by hasZero
+    private final int[] table;
+    private final boolean hasZero;
+    private final int size;
+
+    private IntHashSet(int[] table, boolean hasZero, int size) {
+        this.table = table;
+        this.hasZero = hasZero;
+        this.size = size;
+    }
+
+    /**
+     * @param values values, duplicates allowed
+     * @param count number of leading values of the array to add
+     */
+    public static IntHashSet of(int[] values, int count) {
+        int[] table = new int[capacityFor(count)];
+        boolean hasZero = false;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int v = values[i];
+            if (v == 0) {
+                if (!hasZero) {
+                    hasZero = true;
+                    size++;
+                }
+            } else if (insert(table, v)) {
+                size++;
+            }
+        }
+        return new IntHashSet(table, hasZero, size);
+    }
+
+    public boolean contains(int value) {
+        if (value == 0) {
+            return hasZero;
+        }
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            int v = table[i];
+            if (v == value) {
+                return true;
+            }
+            if (v == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return this set when every value is already in, otherwise a new set, built once for all values
+     */
+    public IntHashSet withAll(int... values) {
+        if (countIn(values) == values.length) {
+            return this;
+        }
+        int[] all = Arrays.copyOf(toArray(), size + values.length);
+        System.arraycopy(values, 0, all, size, values.length);
+        return of(all, all.length);
+    }
+
+    /**
+     * @return this set when no value is in, otherwise a new set, built once for all values
+     */
+    public IntHashSet withoutAll(int... values) {
+        if (countIn(values) == 0) {
+            return this;
+        }
+        IntHashSet removed = of(values, values.length);
+        int[] kept = toArray();
+        int n = 0;
+        for (int v: kept) {
+            if (!removed.contains(v)) {
+                kept[n++] = v;
+            }
+        }
+        return of(kept, n);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] toArray() {
+        int[] values = new int[size];
+        int n = 0;
+        if (hasZero) {
+            values[n++] = 0;
+        }
+        for (int v: table) {
+            if (v != 0) {
+                values[n++] = v;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Heap used by the set, assuming a 64-bit JVM with compressed oops.
+     */
+    public long sizeInBytes() {
+        return 24 + 16 + table.length * 4L;
+    }
+
+    private int countIn(int[] values) {
+        int n = 0;
+        for (int v: values) {
+            if (contains(v)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static boolean insert(int[] table, int value) {
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            int v = table[i];
+            if (v == value) {
+                return false;
+            }
+            if (v == 0) {
+                table[i] = value;
+                return true;
+            }
+        }
+    }
+
+    private static int capacityFor(int count) {
+        // load factor at most 1/2, and always one free slot to end probes
+        int capacity = 2;
+        while (capacity < count * 2 + 1) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
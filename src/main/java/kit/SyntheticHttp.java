@@ -0,0 +1,131 @@
+package kit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Just enough of the servlet API for controllers, interceptors and renders to run outside a container,
+ * used by the startup warmup and the benchmarks.
+ */
+public final class SyntheticHttp {
+
+    private SyntheticHttp() {
+    }
+
+    public static HttpServletRequest request(String method, Map<String, String> params) {
+        Map<String, Object> attrs = new HashMap<>();
+        return (HttpServletRequest) Proxy.newProxyInstance(SyntheticHttp.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "getParameter":
+                            return params.get(args[0]);
+                        case "getParameterValues":
+                            return params.containsKey(args[0]) ? new String[]{params.get(args[0])} : null;
+                        case "getParameterNames":
+                            return Collections.enumeration(params.keySet());
+                        case "getQueryString":
+                            return queryString(params);
+                        case "getAttribute":
+                            return attrs.get(args[0]);
+                        case "setAttribute":
+                            if (args[1] == null) {
+                                attrs.remove(args[0]);
+                            } else {
+                                attrs.put((String) args[0], args[1]);
+                            }
+                            return null;
+                        case "removeAttribute":
+                            attrs.remove(args[0]);
+                            return null;
+                        case "getAttributeNames":
+                            return Collections.enumeration(attrs.keySet());
+                        case "getMethod":
+                            return method;
+                        case "getCharacterEncoding":
+                            return "UTF-8";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    /**
+     * A response whose body goes to the given writer.
+     */
+    public static HttpServletResponse response(Writer body) {
+        Map<String, Object> headers = new HashMap<>();
+        PrintWriter writer = new PrintWriter(body);
+        return (HttpServletResponse) Proxy.newProxyInstance(SyntheticHttp.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "getWriter":
+                            return writer;
+                        case "setHeader":
+                        case "setDateHeader":
+                            headers.put((String) args[0], args[1]);
+                            return null;
+                        case "containsHeader":
+                            return headers.containsKey(args[0]);
+                        case "getHeader":
+                            return headers.get(args[0]) == null ? null : headers.get(args[0]).toString();
+                        case "isCommitted":
+                            return false;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static String queryString(Map<String, String> params) {
+        if (params.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e: params.entrySet()) {
+            sb.append(sb.length() == 0 ? "" : "&").append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Discards everything, only counting what was written.
+     */
+    public static final class NullWriter extends Writer {
+        public long chars;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            chars += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            chars += len;
+        }
+
+        @Override
+        public void write(int c) {
+            chars++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package metrics;
+
+import kit.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency in microseconds, request and error counts of one action, and the statements it executed.
+ */
+public class ActionMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAccumulator maxStatements = new LongAccumulator(Math::max, 0);
+    private final LongAdder overBudget = new LongAdder();
+
+    public void record(long micros, boolean error) {
+        latency.record(micros);
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * @param executed statements executed by one request, see {@link interceptors.QueryBudgetInterceptor}
+     * @param over whether they exceeded the action's budget
+     */
+    public void recordStatements(long executed, boolean over) {
+        statements.add(executed);
+        maxStatements.accumulate(executed);
+        if (over) {
+            overBudget.increment();
+        }
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getRequests() {
+        return latency.getCount();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    public long getMaxStatements() {
+        return maxStatements.get();
+    }
+
+    public long getOverBudget() {
+        return overBudget.sum();
+    }
+}
@@ -0,0 +1,167 @@
+package metrics;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.stat.JdbcSqlStat;
+import com.jfinal.plugin.activerecord.DbKit;
+import kit.LatencyHistogram;
+import plugins.CatalogCache;
+import plugins.CatalogSnapshot;
+import plugins.ViewingHistoryWriter;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the per-action metrics and writes them, together with the connection pool, per-SQL and
+ * plugin statistics, in the Prometheus text exposition format.
+ */
+public class MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final Map<String, ActionMetrics> ACTIONS = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    public static ActionMetrics action(String actionKey) {
+        ActionMetrics metrics = ACTIONS.get(actionKey);
+        return metrics != null ? metrics : ACTIONS.computeIfAbsent(actionKey, k -> new ActionMetrics());
+    }
+
+    /**
+     * Forgets every action, e.g. after the startup warmup.
+     */
+    public static void reset() {
+        ACTIONS.clear();
+    }
+
+    /**
+     * @param maxSqlShapes how many statements, by total execution time, to export
+     */
+    public static String toPrometheus(int maxSqlShapes) {
+        StringBuilder sb = new StringBuilder(8192);
+        writeActions(sb);
+        DataSource ds = DbKit.getConfig() == null ? null : DbKit.getConfig().getDataSource();
+        if (ds instanceof DruidDataSource) {
+            writePool(sb, (DruidDataSource) ds);
+            writeSql(sb, (DruidDataSource) ds, maxSqlShapes);
+        }
+        writePlugins(sb);
+        return sb.toString();
+    }
+
+    private static void writeActions(StringBuilder sb) {
+        sb.append("# HELP tio_action_latency_seconds Action latency, validators and interceptors included.\n");
+        sb.append("# TYPE tio_action_latency_seconds summary\n");
+        for (Map.Entry<String, ActionMetrics> e: ACTIONS.entrySet()) {
+            LatencyHistogram h = e.getValue().getLatency();
+            String action = escape(e.getKey());
+            for (double q: QUANTILES) {
+                sb.append("tio_action_latency_seconds{action=\"").append(action).append("\",quantile=\"").append(q)
+                        .append("\"} ").append(h.getValueAtQuantile(q) / 1e6).append('\n');
+            }
+            sb.append("tio_action_latency_seconds_sum{action=\"").append(action).append("\"} ").append(h.getSum() / 1e6).append('\n');
+            sb.append("tio_action_latency_seconds_count{action=\"").append(action).append("\"} ").append(h.getCount()).append('\n');
+        }
+        sb.append("# HELP tio_action_errors_total Actions that responded with an error or threw.\n");
+        sb.append("# TYPE tio_action_errors_total counter\n");
+        for (Map.Entry<String, ActionMetrics> e: ACTIONS.entrySet()) {
+            sample(sb, "tio_action_errors_total", "action", e.getKey(), e.getValue().getErrors());
+        }
+        sb.append("# HELP tio_action_statements_total SQL statements executed by the action.\n");
+        sb.append("# TYPE tio_action_statements_total counter\n");
+        for (Map.Entry<String, ActionMetrics> e: ACTIONS.entrySet()) {
+            sample(sb, "tio_action_statements_total", "action", e.getKey(), e.getValue().getStatements());
+        }
+        sb.append("# HELP tio_action_statements_max Most statements executed by a single request of the action.\n");
+        sb.append("# TYPE tio_action_statements_max gauge\n");
+        for (Map.Entry<String, ActionMetrics> e: ACTIONS.entrySet()) {
+            sample(sb, "tio_action_statements_max", "action", e.getKey(), e.getValue().getMaxStatements());
+        }
+        sb.append("# HELP tio_action_over_budget_total Requests that executed more statements than the action's @QueryBudget.\n");
+        sb.append("# TYPE tio_action_over_budget_total counter\n");
+        for (Map.Entry<String, ActionMetrics> e: ACTIONS.entrySet()) {
+            sample(sb, "tio_action_over_budget_total", "action", e.getKey(), e.getValue().getOverBudget());
+        }
+    }
+
+    private static void writePool(StringBuilder sb, DruidDataSource ds) {
+        gauge(sb, "tio_pool_active_connections", "Connections currently borrowed.", ds.getActiveCount());
+        gauge(sb, "tio_pool_idle_connections", "Connections idle in the pool.", ds.getPoolingCount());
+        gauge(sb, "tio_pool_max_connections", "Maximum size of the pool.", ds.getMaxActive());
+        gauge(sb, "tio_pool_waiting_threads", "Threads waiting for a connection.", ds.getWaitThreadCount());
+        counter(sb, "tio_pool_wait_total", "Times a thread had to wait for a connection.", ds.getNotEmptyWaitCount());
+        counter(sb, "tio_pool_wait_seconds_total", "Time spent waiting for a connection.", ds.getNotEmptyWaitMillis() / 1e3);
+        counter(sb, "tio_pool_connect_errors_total", "Failed attempts to open a connection.", ds.getConnectErrorCount());
+    }
+
+    private static void writeSql(StringBuilder sb, DruidDataSource ds, int maxSqlShapes) {
+        if (ds.getDataSourceStat() == null) {
+            return;
+        }
+        List<JdbcSqlStat> stats = new ArrayList<>(ds.getDataSourceStat().getSqlStatMap().values());
+        stats.sort((a, b) -> Long.compare(b.getExecuteMillisTotal(), a.getExecuteMillisTotal()));
+        if (stats.size() > maxSqlShapes) {
+            stats = stats.subList(0, maxSqlShapes);
+        }
+        sb.append("# HELP tio_sql_executions_total Executions per statement, as merged by Druid's StatFilter.\n");
+        sb.append("# TYPE tio_sql_executions_total counter\n");
+        for (JdbcSqlStat s: stats) {
+            sample(sb, "tio_sql_executions_total", "sql", s.getSql(), s.getExecuteCount());
+        }
+        sb.append("# HELP tio_sql_execution_seconds_total Execution time per statement.\n");
+        sb.append("# TYPE tio_sql_execution_seconds_total counter\n");
+        for (JdbcSqlStat s: stats) {
+            sample(sb, "tio_sql_execution_seconds_total", "sql", s.getSql(), s.getExecuteMillisTotal() / 1e3);
+        }
+        sb.append("# HELP tio_sql_execution_max_seconds Slowest execution per statement.\n");
+        sb.append("# TYPE tio_sql_execution_max_seconds gauge\n");
+        for (JdbcSqlStat s: stats) {
+            sample(sb, "tio_sql_execution_max_seconds", "sql", s.getSql(), s.getExecuteMillisMax() / 1e3);
+        }
+        sb.append("# HELP tio_sql_errors_total Failed executions per statement.\n");
+        sb.append("# TYPE tio_sql_errors_total counter\n");
+        for (JdbcSqlStat s: stats) {
+            sample(sb, "tio_sql_errors_total", "sql", s.getSql(), s.getErrorCount());
+        }
+    }
+
+    private static void writePlugins(StringBuilder sb) {
+        ViewingHistoryWriter writer = ViewingHistoryWriter.me();
+        if (writer != null) {
+            counter(sb, "tio_viewing_queued_total", "Views accepted by the write-behind queue.", writer.getQueuedCount());
+            counter(sb, "tio_viewing_flushed_total", "Views written to viewing_history.", writer.getFlushedCount());
+            counter(sb, "tio_viewing_dropped_total", "Views rejected or lost by the write-behind queue.", writer.getDroppedCount());
+            gauge(sb, "tio_viewing_pending", "Views waiting to be flushed.", writer.getPendingCount());
+        }
+        CatalogCache catalog = CatalogCache.me();
+        if (catalog != null) {
+            CatalogSnapshot snapshot = catalog.snapshot();
+            gauge(sb, "tio_catalog_commodities", "Commodities in the catalog snapshot.", snapshot.getCommodityCount());
+            gauge(sb, "tio_catalog_estimated_bytes", "Estimated heap used by the catalog snapshot.", snapshot.getEstimatedBytes());
+            gauge(sb, "tio_catalog_load_seconds", "Time the last catalog load took.", snapshot.getLoadMillis() / 1e3);
+        }
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, double value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String labelValue, double value) {
+        sb.append(name).append('{').append(label).append("=\"").append(escape(labelValue)).append("\"} ").append(value).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,77 @@
+package plugins;
+
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.IPlugin;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the current {@link CatalogSnapshot} and its {@link SearchIndex}. Readers just dereference a volatile
+ * field, refreshes build a complete new snapshot, update the index from it and swap both in.
+ * Must be added after the ActiveRecordPlugin.
+ */
+public class CatalogCache implements IPlugin {
+    private static volatile CatalogCache me;
+
+    private final long refreshIntervalSec;
+    private volatile CatalogSnapshot snapshot;
+    private volatile SearchIndex searchIndex = SearchIndex.EMPTY;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param refreshIntervalSec period of the background refresh, 0 to only refresh on demand
+     */
+    public CatalogCache(long refreshIntervalSec) {
+        this.refreshIntervalSec = refreshIntervalSec;
+    }
+
+    public static CatalogCache me() {
+        return me;
+    }
+
+    public CatalogSnapshot snapshot() {
+        return snapshot;
+    }
+
+    public SearchIndex searchIndex() {
+        return searchIndex;
+    }
+
+    public synchronized CatalogSnapshot refresh() {
+        CatalogSnapshot next = CatalogSnapshot.load();
+        searchIndex = searchIndex.update(next.getListRows());
+        snapshot = next;
+        return snapshot;
+    }
+
+    @Override
+    public boolean start() {
+        refresh();
+        if (refreshIntervalSec > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "catalog-cache-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    LogKit.error("Catalog refresh failed, keep serving the previous snapshot", e);
+                }
+            }, refreshIntervalSec, refreshIntervalSec, TimeUnit.SECONDS);
+        }
+        me = this;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        return true;
+    }
+}
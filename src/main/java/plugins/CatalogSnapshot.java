@@ -0,0 +1,242 @@
+package plugins;
+
+import models.Brand;
+import models.Category;
+import models.Commodity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Immutable view of commodity, brand and category tables, indexed for the catalog endpoints.
+ * The models held here are shared between requests and must never be modified.
+ */
+public final class CatalogSnapshot {
+    private final List<Commodity> listRows;
+    private final Map<Integer, List<Commodity>> listRowsByCategory;
+    private final Map<Integer, Commodity> commodityById;
+    private final Map<Integer, Brand> brandById;
+    private final Map<String, Integer> categoryIdByName;
+    private final long loadedAt;
+    private final long loadMillis;
+    private final long estimatedBytes;
+    private final String version;
+
+    private CatalogSnapshot(List<Commodity> listRows, Map<Integer, List<Commodity>> listRowsByCategory,
+                            Map<Integer, Commodity> commodityById, Map<Integer, Brand> brandById,
+                            Map<String, Integer> categoryIdByName, long loadedAt, long loadMillis, long estimatedBytes,
+                            String version) {
+        this.listRows = listRows;
+        this.listRowsByCategory = listRowsByCategory;
+        this.commodityById = commodityById;
+        this.brandById = brandById;
+        this.categoryIdByName = categoryIdByName;
+        this.loadedAt = loadedAt;
+        this.loadMillis = loadMillis;
+        this.estimatedBytes = estimatedBytes;
+        this.version = version;
+    }
+
+    /**
+     * Reads the three tables and builds a new snapshot. Rows of /commodity/listAll and /commodity/list
+     * are built here with the same keys as the commodity inner join brand query they replace.
+     */
+    public static CatalogSnapshot load() {
+        long start = System.currentTimeMillis();
+        List<Brand> brands = Brand.dao.find("select * from brand order by id");
+        List<Category> categories = Category.dao.find("select * from category order by id");
+        List<Commodity> commodities = Commodity.dao.find("select * from commodity order by id");
+
+        Map<Integer, Brand> brandById = new HashMap<>(brands.size() * 2);
+        for (Brand b: brands) {
+            brandById.put(intValue(b.get("id")), b);
+        }
+        Map<String, Integer> categoryIdByName = new HashMap<>(categories.size() * 2);
+        for (Category c: categories) {
+            categoryIdByName.put(c.getStr("name"), intValue(c.get("id")));
+        }
+
+        List<Commodity> listRows = new ArrayList<>(commodities.size());
+        Map<Integer, List<Commodity>> listRowsByCategory = new HashMap<>();
+        Map<Integer, Commodity> commodityById = new HashMap<>(commodities.size() * 2);
+        long bytes = 0;
+        MessageDigest digest = sha256();
+        for (Commodity c: commodities) {
+            commodityById.put(intValue(c.get("id")), c);
+            bytes += estimateBytes(c._getAttrValues());
+            digest(digest, c._getAttrsEntrySet());
+            Brand b = c.get("brand_id") == null ? null : brandById.get(intValue(c.get("brand_id")));
+            if (b == null) {
+                // inner join semantics, commodities without brand are not listed
+                continue;
+            }
+            Commodity row = new Commodity()
+                    .put("commodity_id", c.get("id"))
+                    .put("commodity_desc_img", c.get("desc_img"))
+                    .put("commodity_name", c.get("name"))
+                    .put("brand_name", b.get("name"))
+                    .put("brand_logo", b.get("logo"))
+                    .put("brand_desc", b.get("desc"));
+            bytes += estimateBytes(row._getAttrValues());
+            listRows.add(row);
+            if (c.get("category_id") != null) {
+                listRowsByCategory.computeIfAbsent(intValue(c.get("category_id")), k -> new ArrayList<>()).add(row);
+            }
+        }
+        for (Brand b: brands) {
+            bytes += estimateBytes(b._getAttrValues());
+            digest(digest, b._getAttrsEntrySet());
+        }
+        for (Category c: categories) {
+            bytes += estimateBytes(c._getAttrValues());
+            digest(digest, c._getAttrsEntrySet());
+        }
+        for (Map.Entry<Integer, List<Commodity>> e: listRowsByCategory.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+
+        return new CatalogSnapshot(Collections.unmodifiableList(listRows),
+                Collections.unmodifiableMap(listRowsByCategory),
+                Collections.unmodifiableMap(commodityById),
+                Collections.unmodifiableMap(brandById),
+                Collections.unmodifiableMap(categoryIdByName),
+                System.currentTimeMillis(), System.currentTimeMillis() - start, bytes, hex(digest.digest(), 16));
+    }
+
+    public List<Commodity> getListRows() {
+        return listRows;
+    }
+
+    public List<Commodity> getListRows(int categoryId) {
+        List<Commodity> rows = listRowsByCategory.get(categoryId);
+        return rows == null ? Collections.emptyList() : rows;
+    }
+
+    /**
+     * @param rows listing rows, which are sorted by commodity_id
+     * @return index of the first row whose commodity_id is greater than after
+     */
+    public static int indexAfter(List<Commodity> rows, int after) {
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (intValue(rows.get(mid).get("commodity_id")) <= after) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public Commodity getCommodity(int id) {
+        return commodityById.get(id);
+    }
+
+    public Brand getBrand(int id) {
+        return brandById.get(id);
+    }
+
+    public Integer getCategoryId(String name) {
+        return categoryIdByName.get(name);
+    }
+
+    public int getCommodityCount() {
+        return commodityById.size();
+    }
+
+    public int getBrandCount() {
+        return brandById.size();
+    }
+
+    public int getCategoryCount() {
+        return categoryIdByName.size();
+    }
+
+    /**
+     * SHA-256 digest of every cached row, truncated to 128 bits. Two loads of an unchanged catalog have the
+     * same version, any changed column gives a new one.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    /**
+     * Rough heap estimate of the cached rows, assuming a 64-bit JVM with compressed oops.
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    private static int intValue(Object o) {
+        return ((Number) o).intValue();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds one row to the digest. The attribute order of a model is not guaranteed, so the columns are added
+     * sorted by name, each name and value prefixed with its length so that no two rows digest the same bytes.
+     */
+    private static void digest(MessageDigest digest, Set<Map.Entry<String, Object>> attrs) {
+        Map<String, Object> columns = new TreeMap<>();
+        for (Map.Entry<String, Object> e: attrs) {
+            columns.put(e.getKey(), e.getValue());
+        }
+        digest.update(ByteBuffer.allocate(4).putInt(columns.size()).array());
+        for (Map.Entry<String, Object> e: columns.entrySet()) {
+            update(digest, e.getKey());
+            Object value = e.getValue();
+            digest.update((byte) (value == null ? 0 : 1));
+            if (value != null) {
+                update(digest, value.toString());
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static String hex(byte[] bytes, int length) {
+        StringBuilder sb = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static long estimateBytes(Object[] values) {
+        // model + attribute map + one entry and key per column
+        long bytes = 16 + 48 + values.length * 48L;
+        for (Object v: values) {
+            if (v instanceof String) {
+                bytes += 40 + ((String) v).length() * 2L;
+            } else if (v != null) {
+                bytes += 24;
+            }
+        }
+        return bytes;
+    }
+}
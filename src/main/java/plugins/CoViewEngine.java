@@ -0,0 +1,298 @@
+package plugins;
+
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.IPlugin;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.dialect.MysqlDialect;
+import kit.IntFloatMap;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Customers also viewed": item to item co-view counts, maintained incrementally from the views.
+ *
+ * Two commodities co-occur when the same user views both within pairWindowMs, looking back over that
+ * user's last recentWindow distinct views. Counts decay exponentially with halfLifeDays: instead of
+ * aging every count, each new view adds a weight that doubles every half-life, and all counts are
+ * rescaled when weights grow large. Each commodity keeps at most maxNeighbors counts, the weakest are
+ * pruned beyond that, and only the last maxUsers users are remembered, so memory stays bounded.
+ *
+ * All counting happens on one thread fed by a queue, so the counts need no locking. Every change of a
+ * commodity's top-K is published as a new array, which /commodity/related reads without locking.
+ * At start the thread first streams the last bootstrapDays of viewing_history from master, so the plugin
+ * must be added after the ActiveRecordPlugin.
+ */
+public class CoViewEngine implements IPlugin {
+    private static final int[] NONE = new int[0];
+    private static volatile CoViewEngine me;
+
+    private final int topK;
+    private final int recentWindow;
+    private final long pairWindowMs;
+    private final long halfLifeMs;
+    private final int maxNeighbors;
+    private final int maxUsers;
+    private final int bootstrapDays;
+    private final int queueCapacity;
+
+    private final Map<Integer, int[]> related = new ConcurrentHashMap<>();
+    private BlockingQueue<long[]> queue;
+    private Thread worker;
+    private volatile boolean running;
+
+    // owned by the worker thread
+    private final Map<Integer, IntFloatMap> counts = new HashMap<>();
+    private final Map<Integer, TopK> tops = new HashMap<>();
+    private Map<Integer, Recent> recent;
+    private long origin;
+
+    public CoViewEngine(int topK, int recentWindow, long pairWindowMs, int halfLifeDays, int maxNeighbors,
+                        int maxUsers, int bootstrapDays, int queueCapacity) {
+        this.topK = topK;
+        this.recentWindow = recentWindow;
+        this.pairWindowMs = pairWindowMs;
+        this.halfLifeMs = TimeUnit.DAYS.toMillis(halfLifeDays);
+        this.maxNeighbors = maxNeighbors;
+        this.maxUsers = maxUsers;
+        this.bootstrapDays = bootstrapDays;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public static CoViewEngine me() {
+        return me;
+    }
+
+    /**
+     * @return ids of the commodities most viewed together with this one, strongest first
+     */
+    public int[] related(int commodityId) {
+        int[] ids = related.get(commodityId);
+        return ids == null ? NONE : ids;
+    }
+
+    /**
+     * Queues a view without blocking, views are dropped while the queue is full.
+     */
+    public void record(int userId, int commodityId, long time) {
+        if (running) {
+            queue.offer(new long[]{userId, commodityId, time});
+        }
+    }
+
+    @Override
+    public boolean start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        recent = new LinkedHashMap<Integer, Recent>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Recent> eldest) {
+                return size() > maxUsers;
+            }
+        };
+        origin = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(bootstrapDays);
+        running = true;
+        worker = new Thread(this::run, "co-view-engine");
+        worker.setDaemon(true);
+        worker.start();
+        me = this;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        return true;
+    }
+
+    private void run() {
+        try {
+            bootstrap();
+        } catch (Exception e) {
+            LogKit.error("Co-view bootstrap failed, starting from the live views only", e);
+        }
+        while (running) {
+            try {
+                long[] view = queue.take();
+                apply((int) view[0], (int) view[1], view[2]);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                LogKit.error("Co-view update failed", e);
+            }
+        }
+    }
+
+    private void bootstrap() throws SQLException {
+        long start = System.currentTimeMillis();
+        long rows = 0;
+        // master on purpose, and a cursor so the table is never held in memory
+        try (Connection conn = DbKit.getConfig().getDataSource().getConnection();
+             PreparedStatement pst = conn.prepareStatement(
+                     "select user_id, commodity_id, create_time from viewing_history where create_time > ? " +
+                             "order by user_id, create_time",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pst.setFetchSize(DbKit.getConfig().getDialect() instanceof MysqlDialect ? Integer.MIN_VALUE : 1000);
+            pst.setTimestamp(1, new Timestamp(origin));
+            try (ResultSet rs = pst.executeQuery()) {
+                while (running && rs.next()) {
+                    apply(rs.getInt(1), rs.getInt(2), rs.getTimestamp(3).getTime());
+                    rows++;
+                }
+            }
+        }
+        LogKit.info("Co-view engine bootstrapped from " + rows + " views in " + (System.currentTimeMillis() - start)
+                + " ms, " + related.size() + " commodities with related items");
+    }
+
+    private void apply(int userId, int commodityId, long time) {
+        float weight = weight(time);
+        Recent r = recent.get(userId);
+        if (r == null) {
+            r = new Recent(recentWindow);
+            recent.put(userId, r);
+        }
+        for (int i = 0; i < r.size; i++) {
+            int other = r.items[i];
+            if (other != commodityId && Math.abs(time - r.times[i]) <= pairWindowMs) {
+                increment(other, commodityId, weight);
+                increment(commodityId, other, weight);
+            }
+        }
+        r.push(commodityId, time);
+    }
+
+    private void increment(int item, int other, float weight) {
+        IntFloatMap m = counts.get(item);
+        if (m == null) {
+            m = new IntFloatMap();
+            counts.put(item, m);
+        }
+        float count = m.addTo(other, weight);
+        if (m.size() > maxNeighbors) {
+            m.retainTop(maxNeighbors * 3 / 4, 0);
+        }
+        TopK top = tops.get(item);
+        if (top == null) {
+            top = new TopK(topK);
+            tops.put(item, top);
+        }
+        if (top.offer(other, count)) {
+            related.put(item, top.ids());
+        }
+    }
+
+    /**
+     * Weight of a view at time, doubling every half-life after origin. Past 2^20 every count is scaled
+     * down and origin moved forward, which keeps floats far from overflowing and ratios unchanged.
+     */
+    private float weight(long time) {
+        double exponent = (double) (time - origin) / halfLifeMs;
+        if (exponent > 20) {
+            long shift = (long) exponent;
+            float factor = (float) Math.pow(2, -shift);
+            for (IntFloatMap m: counts.values()) {
+                m.scale(factor);
+            }
+            for (TopK top: tops.values()) {
+                top.scale(factor);
+            }
+            origin += shift * halfLifeMs;
+            exponent -= shift;
+        }
+        return (float) Math.pow(2, exponent);
+    }
+
+    /**
+     * Last distinct commodities viewed by a user, oldest first.
+     */
+    private static final class Recent {
+        final int[] items;
+        final long[] times;
+        int size;
+
+        Recent(int capacity) {
+            items = new int[capacity];
+            times = new long[capacity];
+        }
+
+        void push(int item, long time) {
+            int i = 0;
+            while (i < size && items[i] != item) {
+                i++;
+            }
+            if (i == size && size == items.length) {
+                i = 0;
+            }
+            // drop the previous view of item, or the oldest one when full
+            if (i < size) {
+                System.arraycopy(items, i + 1, items, i, size - i - 1);
+                System.arraycopy(times, i + 1, times, i, size - i - 1);
+                size--;
+            }
+            items[size] = item;
+            times[size] = time;
+            size++;
+        }
+    }
+
+    /**
+     * Highest counts of a commodity, kept sorted in descending order. Counts only grow between rescales,
+     * so an update only ever moves an entry towards the front.
+     */
+    private static final class TopK {
+        final int[] ids;
+        final float[] scores;
+        int size;
+
+        TopK(int k) {
+            ids = new int[k];
+            scores = new float[k];
+        }
+
+        /**
+         * @return whether the ids or their order changed
+         */
+        boolean offer(int id, float score) {
+            int i = 0;
+            while (i < size && ids[i] != id) {
+                i++;
+            }
+            if (i == size) {
+                if (size < ids.length) {
+                    size++;
+                } else if (score <= scores[size - 1]) {
+                    return false;
+                } else {
+                    i = size - 1;
+                }
+            }
+            int from = i;
+            while (i > 0 && scores[i - 1] < score) {
+                ids[i] = ids[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            boolean changed = i != from || ids[i] != id;
+            ids[i] = id;
+            scores[i] = score;
+            return changed;
+        }
+
+        void scale(float factor) {
+            for (int i = 0; i < size; i++) {
+                scores[i] *= factor;
+            }
+        }
+
+        int[] ids() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package plugins;
+
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.IPlugin;
+import com.jfinal.plugin.activerecord.Db;
+import kit.IntBitmap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory keys of commodity, category and tp_user, used by the record-exist validators.
+ *
+ * The index is loaded at start, updated by the app's own insert paths and reconciled with the database
+ * periodically. A hit is trusted; a miss may be a row written by someone else since the last reconcile,
+ * so validators confirm misses against the database and add what they find.
+ * Must be added after the ActiveRecordPlugin.
+ */
+public class ExistenceIndex implements IPlugin {
+    private static volatile ExistenceIndex me;
+
+    private final long reconcileIntervalSec;
+    private volatile IntBitmap commodityIds = new IntBitmap();
+    private volatile Set<String> categoryNames = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> tpIds = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param reconcileIntervalSec period of the reload from the database, 0 to disable it
+     */
+    public ExistenceIndex(long reconcileIntervalSec) {
+        this.reconcileIntervalSec = reconcileIntervalSec;
+    }
+
+    public static ExistenceIndex me() {
+        return me;
+    }
+
+    public boolean hasCommodity(int id) {
+        return commodityIds.contains(id);
+    }
+
+    public boolean hasCategory(String name) {
+        return categoryNames.contains(name);
+    }
+
+    public boolean hasTpId(String tpId) {
+        return tpIds.contains(tpId);
+    }
+
+    public void addCommodity(int id) {
+        commodityIds.add(id);
+    }
+
+    public void addCategory(String name) {
+        categoryNames.add(name);
+    }
+
+    public void addTpId(String tpId) {
+        tpIds.add(tpId);
+    }
+
+    public void removeCommodity(int id) {
+        commodityIds.remove(id);
+    }
+
+    public void removeCategory(String name) {
+        categoryNames.remove(name);
+    }
+
+    public void removeTpId(String tpId) {
+        tpIds.remove(tpId);
+    }
+
+    /**
+     * Filters commodity ids down to the existing ones, confirming the ids missing from the index with a
+     * single IN query and adding the ones found.
+     *
+     * @return the existing ids, in the given order
+     */
+    public int[] existingCommodities(int[] ids) {
+        int[] misses = new int[ids.length];
+        int missCount = 0;
+        for (int id: ids) {
+            if (!commodityIds.contains(id)) {
+                misses[missCount++] = id;
+            }
+        }
+        if (missCount > 0) {
+            StringBuilder sql = new StringBuilder("select id from commodity where id in (");
+            Object[] paras = new Object[missCount];
+            for (int i = 0; i < missCount; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+                paras[i] = misses[i];
+            }
+            for (Object id: Db.query(sql.append(")").toString(), paras)) {
+                commodityIds.add(((Number) id).intValue());
+            }
+        }
+        int[] existing = new int[ids.length];
+        int n = 0;
+        for (int id: ids) {
+            if (commodityIds.contains(id)) {
+                existing[n++] = id;
+            }
+        }
+        return Arrays.copyOf(existing, n);
+    }
+
+    /**
+     * Rebuilds every index from the database and swaps it in. Inserts racing with the reload may be
+     * missed until the next one, which is harmless since misses are confirmed against the database.
+     */
+    public synchronized void reconcile() {
+        IntBitmap commodities = loadIds("select id from commodity");
+        Set<String> categories = loadKeys("select name from category");
+        Set<String> tps = loadKeys("select tp_id from tp_user");
+        commodityIds = commodities;
+        categoryNames = categories;
+        tpIds = tps;
+    }
+
+    @Override
+    public boolean start() {
+        reconcile();
+        if (reconcileIntervalSec > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "existence-index-reconcile");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    reconcile();
+                } catch (Exception e) {
+                    LogKit.error("Existence index reconcile failed", e);
+                }
+            }, reconcileIntervalSec, reconcileIntervalSec, TimeUnit.SECONDS);
+        }
+        me = this;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        return true;
+    }
+
+    private static IntBitmap loadIds(String sql) {
+        List<Object> ids = Db.query(sql);
+        IntBitmap bitmap = new IntBitmap(ids.size() * 2);
+        for (Object id: ids) {
+            bitmap.add(((Number) id).intValue());
+        }
+        return bitmap;
+    }
+
+    private static Set<String> loadKeys(String sql) {
+        List<Object> keys = Db.query(sql);
+        Set<String> set = ConcurrentHashMap.newKeySet(keys.size() * 2);
+        for (Object key: keys) {
+            if (key != null) {
+                set.add(key.toString());
+            }
+        }
+        return set;
+    }
+}
@@ -0,0 +1,196 @@
+package plugins;
+
+import com.jfinal.plugin.IPlugin;
+import com.jfinal.plugin.activerecord.ActiveRecordException;
+import com.jfinal.plugin.activerecord.DbKit;
+import kit.IntHashSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Favorite commodity ids per user, loaded on first use and kept in sync by the favorite write paths,
+ * which call {@link #added} and {@link #removed} after their statements succeeded.
+ *
+ * A user's set is loaded inside the map's compute, so a write-through racing with the load waits for
+ * it and is applied on top of it. Loads read master directly: a set loaded from a lagging replica would
+ * stay stale until evicted. When the sets exceed the memory budget, those used least recently are
+ * evicted until a tenth of the budget is free again.
+ */
+public class FavoritesCache implements IPlugin {
+    private static final String LOAD_SQL = "select commodity_id from favorite_list where user_id = ?";
+    // map entry, boxed key, entry object
+    private static final long ENTRY_OVERHEAD = 32 + 16 + 24;
+    private static volatile FavoritesCache me;
+
+    private final ConcurrentHashMap<Integer, Entry> sets = new ConcurrentHashMap<>();
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public FavoritesCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static FavoritesCache me() {
+        return me;
+    }
+
+    public boolean isFavorite(int userId, int commodityId) {
+        return get(userId).contains(commodityId);
+    }
+
+    /**
+     * @return the ids of commodityIds favorited by the user, in the given order
+     */
+    public int[] favorited(int userId, int[] commodityIds) {
+        IntHashSet set = get(userId);
+        int[] result = new int[commodityIds.length];
+        int n = 0;
+        for (int id: commodityIds) {
+            if (set.contains(id)) {
+                result[n++] = id;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    public void added(int userId, int... commodityIds) {
+        sets.computeIfPresent(userId, (k, e) -> replace(e, e.set.withAll(commodityIds)));
+    }
+
+    public void removed(int userId, int... commodityIds) {
+        sets.computeIfPresent(userId, (k, e) -> replace(e, e.set.withoutAll(commodityIds)));
+    }
+
+    public int getUserCount() {
+        return sets.size();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private IntHashSet get(int userId) {
+        Entry e = sets.get(userId);
+        if (e == null) {
+            e = sets.computeIfAbsent(userId, k -> {
+                IntHashSet set = load(k);
+                bytes.addAndGet(ENTRY_OVERHEAD + set.sizeInBytes());
+                loads.incrementAndGet();
+                ticks.incrementAndGet();
+                return new Entry(set);
+            });
+            if (bytes.get() > maxBytes) {
+                evict();
+            }
+        }
+        // recency in loads rather than reads, so that reads do not contend on a shared counter
+        long tick = ticks.get();
+        if (e.lastUse != tick) {
+            e.lastUse = tick;
+        }
+        return e.set;
+    }
+
+    private Entry replace(Entry e, IntHashSet set) {
+        if (set == e.set) {
+            return e;
+        }
+        bytes.addAndGet(set.sizeInBytes() - e.set.sizeInBytes());
+        Entry updated = new Entry(set);
+        updated.lastUse = e.lastUse;
+        return updated;
+    }
+
+    private synchronized void evict() {
+        long target = maxBytes - maxBytes / 10;
+        if (bytes.get() <= target) {
+            return;
+        }
+        // snapshot the recency first, it keeps changing under concurrent reads
+        Object[] keys = sets.keySet().toArray();
+        long[] order = new long[keys.length];
+        Entry[] entries = new Entry[keys.length];
+        int n = 0;
+        for (Object key: keys) {
+            Entry e = sets.get(key);
+            if (e != null) {
+                entries[n] = e;
+                keys[n] = key;
+                order[n] = e.lastUse;
+                n++;
+            }
+        }
+        Integer[] byUse = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byUse[i] = i;
+        }
+        final long[] uses = order;
+        Arrays.sort(byUse, (a, b) -> Long.compare(uses[a], uses[b]));
+        for (int i = 0; i < n && bytes.get() > target; i++) {
+            int k = byUse[i];
+            if (sets.remove(keys[k], entries[k])) {
+                bytes.addAndGet(-(ENTRY_OVERHEAD + entries[k].set.sizeInBytes()));
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static IntHashSet load(int userId) {
+        // master on purpose, bypassing a replica connection bound to this thread
+        try (Connection conn = DbKit.getConfig().getDataSource().getConnection();
+             PreparedStatement pst = conn.prepareStatement(LOAD_SQL)) {
+            pst.setInt(1, userId);
+            try (ResultSet rs = pst.executeQuery()) {
+                int[] ids = new int[16];
+                int n = 0;
+                while (rs.next()) {
+                    if (n == ids.length) {
+                        ids = Arrays.copyOf(ids, n * 2);
+                    }
+                    ids[n++] = rs.getInt(1);
+                }
+                return n == 0 ? IntHashSet.EMPTY : IntHashSet.of(ids, n);
+            }
+        } catch (SQLException e) {
+            throw new ActiveRecordException(e);
+        }
+    }
+
+    @Override
+    public boolean start() {
+        me = this;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    private static final class Entry {
+        final IntHashSet set;
+        volatile long lastUse;
+
+        Entry(IntHashSet set) {
+            this.set = set;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package plugins;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.IPlugin;
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.TableMapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens, validates and prepares the hot statements on the initial connections of every pool, so the
+ * first requests of a fresh node neither connect nor prepare. With ps_cache_size set, the statements
+ * closed here stay in each connection's prepared statement cache and are reused by the actions, which
+ * must therefore use the very same SQL strings. Failures are logged and never prevent the start.
+ * Must be added after the ActiveRecordPlugins.
+ */
+public class PoolWarmer implements IPlugin {
+    private final List<String> configNames;
+    private final List<String> statements;
+    private final List<Class<? extends Model<?>>> findByIdModels;
+
+    /**
+     * @param configNames ActiveRecordPlugin configs whose pools are warmed
+     * @param statements SQL prepared on every connection
+     * @param findByIdModels models whose findById statement is also prepared
+     */
+    public PoolWarmer(List<String> configNames, List<String> statements, List<Class<? extends Model<?>>> findByIdModels) {
+        this.configNames = configNames;
+        this.statements = statements;
+        this.findByIdModels = findByIdModels;
+    }
+
+    @Override
+    public boolean start() {
+        for (String name: configNames) {
+            try {
+                warm(DbKit.getConfig(name));
+            } catch (Exception e) {
+                LogKit.warn("Can not warm the " + name + " pool: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    private void warm(Config config) throws SQLException {
+        long start = System.currentTimeMillis();
+        List<String> sqls = new ArrayList<>(statements);
+        for (Class<? extends Model<?>> model: findByIdModels) {
+            sqls.add(config.getDialect().forModelFindById(TableMapping.me().getTable(model), "*"));
+        }
+        int size = config.getDataSource() instanceof DruidDataSource
+                ? Math.max(1, ((DruidDataSource) config.getDataSource()).getInitialSize()) : 1;
+
+        // hold them all at once, otherwise the pool would hand out the same connection every time
+        Connection[] conns = new Connection[size];
+        int prepared = 0;
+        try {
+            for (int i = 0; i < size; i++) {
+                conns[i] = config.getDataSource().getConnection();
+                if (!conns[i].isValid(2)) {
+                    throw new SQLException("connection " + i + " is not valid");
+                }
+                for (String sql: sqls) {
+                    try {
+                        PreparedStatement pst = conns[i].prepareStatement(sql);
+                        pst.close();
+                        prepared++;
+                    } catch (SQLException e) {
+                        LogKit.warn("Can not prepare " + sql + ": " + e.getMessage());
+                    }
+                }
+            }
+        } finally {
+            for (Connection conn: conns) {
+                if (conn != null) {
+                    conn.close();
+                }
+            }
+        }
+        LogKit.info("Warmed " + config.getName() + " pool: " + size + " connections, " + prepared + " statements in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+}
@@ -0,0 +1,134 @@
+package plugins;
+
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.IPlugin;
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.DbKit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Picks a read replica for the read-only actions. Every replica has its own ActiveRecordPlugin config,
+ * named after its replicaN prefix in datasource.properties. Replicas are used round-robin, skipping the
+ * ones whose last health check or connection attempt failed; when none is healthy, reads stay on master.
+ * Must be added after the replica ActiveRecordPlugins.
+ */
+public class ReplicaRouter implements IPlugin {
+    private static volatile ReplicaRouter me;
+
+    private final String[] configNames;
+    private final AtomicIntegerArray healthy;
+    private final long healthCheckIntervalSec;
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param configNames ActiveRecordPlugin config names of the replicas
+     * @param healthCheckIntervalSec period of the connection check of every replica, 0 to disable it
+     */
+    public ReplicaRouter(List<String> configNames, long healthCheckIntervalSec) {
+        this.configNames = configNames.toArray(new String[0]);
+        this.healthy = new AtomicIntegerArray(this.configNames.length);
+        this.healthCheckIntervalSec = healthCheckIntervalSec;
+    }
+
+    public static ReplicaRouter me() {
+        return me;
+    }
+
+    /**
+     * @return a connection of the next healthy replica, or null when reads should go to master
+     */
+    public Connection getConnection() {
+        int n = configNames.length;
+        int start = Math.floorMod(next.getAndIncrement(), n == 0 ? 1 : n);
+        for (int i = 0; i < n; i++) {
+            int index = (start + i) % n;
+            if (!isHealthy(index)) {
+                continue;
+            }
+            try {
+                return DbKit.getConfig(configNames[index]).getConnection();
+            } catch (SQLException e) {
+                setHealthy(index, false);
+                LogKit.warn("Replica " + configNames[index] + " is unavailable, skipped until the next health check: "
+                        + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    public int getReplicaCount() {
+        return configNames.length;
+    }
+
+    public int getHealthyCount() {
+        int count = 0;
+        for (int i = 0; i < configNames.length; i++) {
+            if (isHealthy(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void checkHealth() {
+        for (int i = 0; i < configNames.length; i++) {
+            Config config = DbKit.getConfig(configNames[i]);
+            boolean ok;
+            try (Connection conn = config.getDataSource().getConnection()) {
+                ok = conn.isValid(2);
+            } catch (SQLException e) {
+                ok = false;
+            }
+            if (ok != isHealthy(i)) {
+                LogKit.info("Replica " + configNames[i] + (ok ? " is back" : " failed its health check"));
+            }
+            setHealthy(i, ok);
+        }
+    }
+
+    private boolean isHealthy(int index) {
+        return healthy.get(index) == 1;
+    }
+
+    private void setHealthy(int index, boolean value) {
+        healthy.set(index, value ? 1 : 0);
+    }
+
+    @Override
+    public boolean start() {
+        checkHealth();
+        if (healthCheckIntervalSec > 0 && configNames.length > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "replica-health-check");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    checkHealth();
+                } catch (Exception e) {
+                    LogKit.error("Replica health check failed", e);
+                }
+            }, healthCheckIntervalSec, healthCheckIntervalSec, TimeUnit.SECONDS);
+        }
+        me = this;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,465 @@
+package plugins;
+
+import models.Commodity;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable inverted index over the name, brand name and brand description of the listed commodities,
+ * answering /commodity/search without touching the database.
+ *
+ * Text is lowercased and split into runs of letters and digits, each CJK ideograph being a token of its
+ * own. Every query token matches the indexed terms it is a prefix of, so results show up while typing,
+ * and a commodity must match all query tokens. Each token scores its best match in the commodity:
+ * 4 in the commodity name, 2 in the brand name, 1 in the brand description, doubled for a whole term.
+ *
+ * Commodities are numbered by slot, in id order, and postings hold slots rather than ids, so a query
+ * marks the postings of each token in one bitset per score sized to the number of commodities,
+ * intersects the tokens word by word, and picks the best results from a histogram of the scores
+ * instead of sorting every match.
+ * {@link #update} derives the index of a new catalog from the previous one: only commodities whose text
+ * changed are tokenized again, and only their terms get new postings. New commodities append slots; when
+ * one is delisted, or an id arrives below the last one, every posting is renumbered in a single pass.
+ */
+public final class SearchIndex {
+    public static final SearchIndex EMPTY = new SearchIndex(new String[0], new int[0][], new byte[0][],
+            new Doc[0], new int[0], new Commodity[0]);
+
+    private static final int NAME = 1;
+    private static final int BRAND_NAME = 2;
+    private static final int BRAND_DESC = 4;
+    /**
+     * Scores of a single token, best first; a token's level is the index of its score here.
+     */
+    private static final int[] LEVEL_SCORES = {8, 4, 2, 1};
+    private static final int MAX_QUERY_TOKENS = 8;
+
+    private final String[] terms;
+    private final int[][] postings;
+    private final byte[][] postingFields;
+    private final Doc[] docs;
+    /**
+     * Commodity id of each slot, ascending.
+     */
+    private final int[] slotIds;
+    private final Commodity[] slotRows;
+
+    private SearchIndex(String[] terms, int[][] postings, byte[][] postingFields, Doc[] docs,
+                        int[] slotIds, Commodity[] slotRows) {
+        this.terms = terms;
+        this.postings = postings;
+        this.postingFields = postingFields;
+        this.docs = docs;
+        this.slotIds = slotIds;
+        this.slotRows = slotRows;
+    }
+
+    /**
+     * @param rows listing rows of the new catalog, see {@link CatalogSnapshot#getListRows()}
+     * @return the index of rows, sharing the terms and postings that did not change with this one
+     */
+    public SearchIndex update(List<Commodity> rows) {
+        int n = rows.size();
+        // id in the high bits, position in rows in the low bits, sorted into slot order
+        long[] order = new long[n];
+        for (int k = 0; k < n; k++) {
+            order[k] = ((long) ((Number) rows.get(k).get("commodity_id")).intValue() << 32) | k;
+        }
+        Arrays.sort(order);
+        int[] ids = new int[n];
+        Commodity[] newRows = new Commodity[n];
+        for (int slot = 0; slot < n; slot++) {
+            ids[slot] = (int) (order[slot] >> 32);
+            newRows[slot] = rows.get((int) order[slot]);
+        }
+        boolean appended = startsWith(ids, slotIds);
+        int[] remap = null;
+        if (!appended) {
+            remap = new int[slotIds.length];
+            Arrays.fill(remap, -1);
+        }
+
+        Doc[] newDocs = new Doc[n];
+        Map<String, Postings> added = new HashMap<>();
+        Map<String, Postings> removed = new HashMap<>();
+        Map<String, String> newTerms = new HashMap<>();
+        UnaryOperator<String> canonical = term -> canonical(term, newTerms);
+        for (int slot = 0; slot < n; slot++) {
+            Commodity row = newRows[slot];
+            String name = row.getStr("commodity_name");
+            String brandName = row.getStr("brand_name");
+            String brandDesc = row.getStr("brand_desc");
+            int oldSlot = appended ? (slot < slotIds.length ? slot : -1) : Arrays.binarySearch(slotIds, ids[slot]);
+            Doc old = null;
+            if (oldSlot >= 0) {
+                old = docs[oldSlot];
+                if (remap != null) {
+                    remap[oldSlot] = slot;
+                }
+            }
+            if (old != null && old.sameText(name, brandName, brandDesc)) {
+                newDocs[slot] = old;
+                continue;
+            }
+            Doc doc = Doc.of(name, brandName, brandDesc, canonical);
+            newDocs[slot] = doc;
+            if (old != null) {
+                collect(removed, old, slot);
+            }
+            collect(added, doc, slot);
+        }
+        if (appended && added.isEmpty() && removed.isEmpty()) {
+            return new SearchIndex(terms, postings, postingFields, newDocs, ids, newRows);
+        }
+
+        Set<String> touchedSet = new HashSet<>(added.keySet());
+        touchedSet.addAll(removed.keySet());
+        String[] touched = touchedSet.toArray(new String[0]);
+        Arrays.sort(touched);
+        int capacity = terms.length + touched.length;
+        List<String> mergedTerms = new ArrayList<>(capacity);
+        List<int[]> mergedPostings = new ArrayList<>(capacity);
+        List<byte[]> mergedFields = new ArrayList<>(capacity);
+        int i = 0;
+        for (String term: touched) {
+            while (i < terms.length && terms[i].compareTo(term) < 0) {
+                carry(i, remap, mergedTerms, mergedPostings, mergedFields);
+                i++;
+            }
+            Postings merged = new Postings(4);
+            if (i < terms.length && terms[i].equals(term)) {
+                Postings gone = removed.get(term);
+                int[] goneSlots = gone == null ? null : gone.sortedSlots();
+                for (int k = 0; k < postings[i].length; k++) {
+                    int slot = remap == null ? postings[i][k] : remap[postings[i][k]];
+                    if (slot >= 0 && (goneSlots == null || Arrays.binarySearch(goneSlots, slot) < 0)) {
+                        merged.add(slot, postingFields[i][k]);
+                    }
+                }
+                i++;
+            }
+            Postings more = added.get(term);
+            if (more != null) {
+                for (int k = 0; k < more.size; k++) {
+                    merged.add(more.slots[k], more.fields[k]);
+                }
+            }
+            if (merged.size > 0) {
+                merged.sort();
+                mergedTerms.add(term);
+                mergedPostings.add(Arrays.copyOf(merged.slots, merged.size));
+                mergedFields.add(Arrays.copyOf(merged.fields, merged.size));
+            }
+        }
+        while (i < terms.length) {
+            carry(i, remap, mergedTerms, mergedPostings, mergedFields);
+            i++;
+        }
+        return new SearchIndex(mergedTerms.toArray(new String[0]), mergedPostings.toArray(new int[0][]),
+                mergedFields.toArray(new byte[0][]), newDocs, ids, newRows);
+    }
+
+    /**
+     * Copies the untouched term i into the merged index, renumbering its postings through remap unless
+     * the slots did not move, dropping the term when none of its commodities is left.
+     */
+    private void carry(int i, int[] remap, List<String> mergedTerms, List<int[]> mergedPostings,
+                       List<byte[]> mergedFields) {
+        if (remap == null) {
+            mergedTerms.add(terms[i]);
+            mergedPostings.add(postings[i]);
+            mergedFields.add(postingFields[i]);
+            return;
+        }
+        Postings kept = new Postings(postings[i].length);
+        for (int k = 0; k < postings[i].length; k++) {
+            // remap is ascending over the kept slots, so the postings stay sorted
+            int slot = remap[postings[i][k]];
+            if (slot >= 0) {
+                kept.add(slot, postingFields[i][k]);
+            }
+        }
+        if (kept.size > 0) {
+            mergedTerms.add(terms[i]);
+            mergedPostings.add(kept.size == kept.slots.length ? kept.slots : Arrays.copyOf(kept.slots, kept.size));
+            mergedFields.add(kept.size == kept.fields.length ? kept.fields : Arrays.copyOf(kept.fields, kept.size));
+        }
+    }
+
+    /**
+     * @return up to limit listing rows matching every token of the query, best first, ties by id
+     */
+    public List<Commodity> search(String query, int limit) {
+        List<String> tokens = new ArrayList<>();
+        tokenize(query, tokens);
+        if (tokens.isEmpty() || slotIds.length == 0) {
+            return Collections.emptyList();
+        }
+        String[] queryTokens = new LinkedHashSet<>(tokens.subList(0, Math.min(tokens.size(), MAX_QUERY_TOKENS)))
+                .toArray(new String[0]);
+
+        int words = (slotIds.length + 63) >>> 6;
+        long[][][] levels = new long[queryTokens.length][][];
+        long[] matches = null;
+        for (int t = 0; t < queryTokens.length; t++) {
+            levels[t] = mark(queryTokens[t], words);
+            if (levels[t] == null) {
+                return Collections.emptyList();
+            }
+            long[][] lv = levels[t];
+            if (matches == null) {
+                matches = new long[words];
+                for (int w = 0; w < words; w++) {
+                    matches[w] = lv[0][w] | lv[1][w] | lv[2][w] | lv[3][w];
+                }
+            } else {
+                for (int w = 0; w < words; w++) {
+                    matches[w] &= lv[0][w] | lv[1][w] | lv[2][w] | lv[3][w];
+                }
+            }
+        }
+
+        int count = 0;
+        for (long word: matches) {
+            count += Long.bitCount(word);
+        }
+        int[] slots = new int[count];
+        int[] scores = new int[count];
+        int[] histogram = new int[LEVEL_SCORES[0] * queryTokens.length + 1];
+        int n = 0;
+        for (int w = 0; w < words; w++) {
+            for (long word = matches[w]; word != 0; word &= word - 1) {
+                long bit = word & -word;
+                int score = 0;
+                for (long[][] lv: levels) {
+                    int level = 0;
+                    while ((lv[level][w] & bit) == 0) {
+                        level++;
+                    }
+                    score += LEVEL_SCORES[level];
+                }
+                slots[n] = (w << 6) + Long.numberOfTrailingZeros(bit);
+                scores[n] = score;
+                histogram[score]++;
+                n++;
+            }
+        }
+
+        // lowest score still in the results, only the first of its matches by id fill the remaining places
+        int threshold = histogram.length - 1;
+        int better = 0;
+        while (threshold > 0 && better + histogram[threshold] < limit) {
+            better += histogram[threshold];
+            threshold--;
+        }
+        int atThreshold = limit - better;
+        // score in the high bits, inverted so that an ascending sort puts the best first, slot in the low bits
+        long[] ranked = new long[Math.min(n, limit)];
+        int r = 0;
+        for (int k = 0; k < n && r < ranked.length; k++) {
+            if (scores[k] > threshold || (scores[k] == threshold && atThreshold-- > 0)) {
+                ranked[r++] = ((long) (Integer.MAX_VALUE - scores[k]) << 32) | slots[k];
+            }
+        }
+        Arrays.sort(ranked, 0, r);
+        List<Commodity> result = new ArrayList<>(r);
+        for (int k = 0; k < r; k++) {
+            result.add(slotRows[(int) ranked[k]]);
+        }
+        return result;
+    }
+
+    /**
+     * Lowercased runs of letters and digits, every ideograph on its own.
+     */
+    static void tokenize(String text, List<String> out) {
+        if (text == null) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i < lower.length(); ) {
+            int cp = lower.codePointAt(i);
+            int next = i + Character.charCount(cp);
+            if (Character.isIdeographic(cp)) {
+                if (start >= 0) {
+                    out.add(lower.substring(start, i));
+                    start = -1;
+                }
+                out.add(lower.substring(i, next));
+            } else if (Character.isLetterOrDigit(cp)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                out.add(lower.substring(start, i));
+                start = -1;
+            }
+            i = next;
+        }
+        if (start >= 0) {
+            out.add(lower.substring(start));
+        }
+    }
+
+    /**
+     * Marks the commodities having a term that starts with token, in the bitset of the level of their
+     * best such term.
+     *
+     * @return bitsets of the four levels, null when no term starts with token
+     */
+    private long[][] mark(String token, int words) {
+        int from = lowerBound(terms, token);
+        if (from == terms.length || !terms[from].startsWith(token)) {
+            return null;
+        }
+        long[][] lv = new long[LEVEL_SCORES.length][words];
+        for (int i = from; i < terms.length && terms[i].startsWith(token); i++) {
+            int exact = terms[i].length() == token.length() ? 0 : 1;
+            int[] slots = postings[i];
+            byte[] fields = postingFields[i];
+            for (int k = 0; k < slots.length; k++) {
+                int field = fields[k];
+                int level = exact + ((field & NAME) != 0 ? 0 : (field & BRAND_NAME) != 0 ? 1 : 2);
+                lv[level][slots[k] >>> 6] |= 1L << slots[k];
+            }
+        }
+        return lv;
+    }
+
+    private String canonical(String term, Map<String, String> newTerms) {
+        // unchanged terms keep sharing the dictionary's string instead of one copy per commodity
+        int i = Arrays.binarySearch(terms, term);
+        return i >= 0 ? terms[i] : newTerms.computeIfAbsent(term, t -> t);
+    }
+
+    private static void collect(Map<String, Postings> changes, Doc doc, int slot) {
+        for (int i = 0; i < doc.terms.length; i++) {
+            changes.computeIfAbsent(doc.terms[i], t -> new Postings(4)).add(slot, doc.fields[i]);
+        }
+    }
+
+    private static boolean startsWith(int[] ids, int[] prefix) {
+        if (ids.length < prefix.length) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length; k++) {
+            if (ids[k] != prefix[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lowerBound(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Indexed text of one commodity: its distinct terms, sorted, with the fields each one appears in.
+     */
+    private static final class Doc {
+        final String name;
+        final String brandName;
+        final String brandDesc;
+        final String[] terms;
+        final byte[] fields;
+
+        private Doc(String name, String brandName, String brandDesc, String[] terms, byte[] fields) {
+            this.name = name;
+            this.brandName = brandName;
+            this.brandDesc = brandDesc;
+            this.terms = terms;
+            this.fields = fields;
+        }
+
+        static Doc of(String name, String brandName, String brandDesc, UnaryOperator<String> canonical) {
+            Map<String, Integer> masks = new HashMap<>();
+            addField(masks, name, NAME);
+            addField(masks, brandName, BRAND_NAME);
+            addField(masks, brandDesc, BRAND_DESC);
+            String[] terms = masks.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            byte[] fields = new byte[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                fields[i] = masks.get(terms[i]).byteValue();
+                terms[i] = canonical.apply(terms[i]);
+            }
+            return new Doc(name, brandName, brandDesc, terms, fields);
+        }
+
+        private static void addField(Map<String, Integer> masks, String text, int field) {
+            List<String> tokens = new ArrayList<>();
+            tokenize(text, tokens);
+            for (String token: tokens) {
+                masks.merge(token, field, (a, b) -> a | b);
+            }
+        }
+
+        boolean sameText(String name, String brandName, String brandDesc) {
+            return Objects.equals(this.name, name) && Objects.equals(this.brandName, brandName)
+                    && Objects.equals(this.brandDesc, brandDesc);
+        }
+    }
+
+    /**
+     * Growable postings of one term, slots with the fields the term appears in.
+     */
+    private static final class Postings {
+        int[] slots;
+        byte[] fields;
+        int size;
+
+        Postings(int capacity) {
+            slots = new int[Math.max(capacity, 1)];
+            fields = new byte[slots.length];
+        }
+
+        void add(int slot, byte field) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            slots[size] = slot;
+            fields[size] = field;
+            size++;
+        }
+
+        int[] sortedSlots() {
+            int[] sorted = Arrays.copyOf(slots, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        void sort() {
+            int i = 1;
+            while (i < size && slots[i - 1] < slots[i]) {
+                i++;
+            }
+            if (i >= size) {
+                // slots are visited in order, so postings of a new term usually are sorted already
+                return;
+            }
+            long[] packed = new long[size];
+            for (i = 0; i < size; i++) {
+                packed[i] = ((long) slots[i] << 8) | (fields[i] & 0xFF);
+            }
+            Arrays.sort(packed);
+            for (i = 0; i < size; i++) {
+                slots[i] = (int) (packed[i] >> 8);
+                fields[i] = (byte) packed[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package plugins;
+
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.IPlugin;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login sessions, kept in memory only: a token maps to a user id until it has been idle for the ttl.
+ *
+ * Lookups are lock-free reads of a ConcurrentHashMap. The idle deadline of a session is only written
+ * back once a minute per session, so hot tokens do not turn every lookup into a shared write, and time
+ * comes from a clock ticked every second rather than from the system on every lookup. When more
+ * than maxSessions are open, the tenth that has been idle longest is evicted in one pass, which keeps
+ * the cost of the bound amortized. Sessions do not survive a restart; clients log in again.
+ */
+public class SessionStore implements IPlugin {
+    private static final long TOUCH_INTERVAL_MILLIS = 60000;
+    private static volatile SessionStore me;
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final int maxSessions;
+    private final long ttlMillis;
+    private final SecureRandom random = new SecureRandom();
+    private volatile long clock = System.currentTimeMillis();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param maxSessions sessions kept at most, the longest idle ones are evicted beyond
+     * @param ttlSec idle time after which a session expires
+     */
+    public SessionStore(int maxSessions, long ttlSec) {
+        this.maxSessions = Math.max(1, maxSessions);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSec);
+    }
+
+    public static SessionStore me() {
+        return me;
+    }
+
+    /**
+     * Opens a session and returns its token, 32 random bytes in URL-safe base64.
+     */
+    public String create(int userId) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(userId, clock + ttlMillis));
+        if (sessions.size() > maxSessions) {
+            trim();
+        }
+        return token;
+    }
+
+    /**
+     * Resolves a token and extends its session.
+     *
+     * @return the user id, null when the token is unknown or expired
+     */
+    public Integer getUserId(String token) {
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = clock;
+        long expiresAt = session.expiresAt;
+        if (expiresAt < now) {
+            sessions.remove(token, session);
+            return null;
+        }
+        if (expiresAt - now < ttlMillis - TOUCH_INTERVAL_MILLIS) {
+            session.expiresAt = now + ttlMillis;
+        }
+        return session.userId;
+    }
+
+    public void remove(String token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * Ends every session of a user except the one of keepToken, e.g. after a password change. Scans all
+     * sessions, which is fine for a rare action.
+     *
+     * @return the number of sessions ended
+     */
+    public int removeOthers(int userId, String keepToken) {
+        int removed = 0;
+        for (Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Session> e = it.next();
+            if (e.getValue().userId == userId && !e.getKey().equals(keepToken)) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Drops the expired sessions.
+     */
+    public void sweep() {
+        long now = clock;
+        sessions.values().removeIf(s -> s.expiresAt < now);
+    }
+
+    /**
+     * Evicts expired sessions, then the tenth of maxSessions idle the longest.
+     */
+    private synchronized void trim() {
+        if (sessions.size() <= maxSessions) {
+            // trimmed by a concurrent create meanwhile
+            return;
+        }
+        sweep();
+        int excess = sessions.size() - maxSessions + maxSessions / 10;
+        if (excess <= 0) {
+            return;
+        }
+        long[] deadlines = new long[sessions.size()];
+        int n = 0;
+        for (Session s: sessions.values()) {
+            if (n == deadlines.length) {
+                break;
+            }
+            deadlines[n++] = s.expiresAt;
+        }
+        if (n == 0) {
+            // emptied by a concurrent remove or sweep since the size was read
+            return;
+        }
+        Arrays.sort(deadlines, 0, n);
+        long cutoff = deadlines[Math.min(excess, n) - 1];
+        // sessions opened within the same clock tick share their deadline, only take as many as needed
+        int removed = 0;
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAt < cutoff) {
+                it.remove();
+                removed++;
+            }
+        }
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext() && removed < excess; ) {
+            if (it.next().expiresAt == cutoff) {
+                it.remove();
+                removed++;
+            }
+        }
+    }
+
+    @Override
+    public boolean start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-store");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (Exception e) {
+                LogKit.error("Session sweep failed", e);
+            }
+        }, 60, 60, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(() -> clock = System.currentTimeMillis(), 1, 1, TimeUnit.SECONDS);
+        me = this;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        return true;
+    }
+
+    private static final class Session {
+        final int userId;
+        volatile long expiresAt;
+
+        Session(int userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package plugins;
+
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.IPlugin;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Most viewed and favorited commodities of the last hour, day and week, counted in memory.
+ *
+ * Requests only add to the LongAdder of the commodity in the live bucket, so concurrent views of one
+ * commodity spread over striped cells instead of contending on a lock or a single counter. Once a
+ * minute a background task swaps in a new live bucket, folds the old one into compact arrays and
+ * slides the windows: the hour is made of the last 60 minute buckets, the day and the week of the
+ * minute buckets of the current hour plus the last 24 and 168 hour buckets. The same task then ranks
+ * every window and publishes the top N, which /commodity/trending reads as is.
+ * Counts do not survive a restart.
+ */
+public class TrendingBoard implements IPlugin {
+    public static final String HOUR = "hour";
+    public static final String DAY = "day";
+    public static final String WEEK = "week";
+
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int HOURS_PER_DAY = 24;
+    private static final int HOURS_PER_WEEK = 168;
+    private static volatile TrendingBoard me;
+
+    private final int topN;
+    private final int favoriteWeight;
+    private volatile Live live = new Live();
+    private volatile Map<String, List<Ranked>> rankings = Collections.emptyMap();
+    private ScheduledExecutorService scheduler;
+
+    // owned by the scheduler thread
+    private final Bucket[] minutes = new Bucket[MINUTES_PER_HOUR];
+    private final Bucket[] hours = new Bucket[HOURS_PER_WEEK];
+    private final Map<Integer, int[]> hourTotals = new HashMap<>();
+    private final Map<Integer, int[]> dayTotals = new HashMap<>();
+    private final Map<Integer, int[]> weekTotals = new HashMap<>();
+    private Map<Integer, int[]> currentHour = new HashMap<>();
+    private int minute;
+    private int hour;
+
+    /**
+     * @param topN commodities ranked per window
+     * @param favoriteWeight how many views a favorite counts for in the ranking
+     */
+    public TrendingBoard(int topN, int favoriteWeight) {
+        this.topN = topN;
+        this.favoriteWeight = favoriteWeight;
+    }
+
+    public static TrendingBoard me() {
+        return me;
+    }
+
+    public void viewed(int commodityId) {
+        increment(live.views, commodityId);
+    }
+
+    public void favorited(int commodityId) {
+        increment(live.favorites, commodityId);
+    }
+
+    /**
+     * @param window one of {@link #HOUR}, {@link #DAY} and {@link #WEEK}
+     * @return the top commodities of the window as of the last minute, highest score first
+     */
+    public List<Ranked> ranking(String window) {
+        List<Ranked> ranking = rankings.get(window);
+        return ranking == null ? Collections.emptyList() : ranking;
+    }
+
+    public static boolean isWindow(String window) {
+        return HOUR.equals(window) || DAY.equals(window) || WEEK.equals(window);
+    }
+
+    @Override
+    public boolean start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "trending-board");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                tick();
+            } catch (Exception e) {
+                LogKit.error("Trending board update failed", e);
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+        me = this;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        return true;
+    }
+
+    private static void increment(ConcurrentHashMap<Integer, LongAdder> counters, int commodityId) {
+        LongAdder counter = counters.get(commodityId);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(commodityId, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    private void tick() {
+        Live closed = live;
+        live = new Live();
+        // a request that read the live bucket right before the swap may still add to it and be missed
+        Bucket bucket = Bucket.of(closed);
+
+        if (minutes[minute] != null) {
+            add(hourTotals, minutes[minute], -1);
+        }
+        minutes[minute] = bucket;
+        add(hourTotals, bucket, 1);
+        add(dayTotals, bucket, 1);
+        add(weekTotals, bucket, 1);
+        add(currentHour, bucket, 1);
+        minute = (minute + 1) % MINUTES_PER_HOUR;
+
+        if (minute == 0) {
+            Bucket expiredFromDay = hours[(hour - HOURS_PER_DAY + HOURS_PER_WEEK) % HOURS_PER_WEEK];
+            if (expiredFromDay != null) {
+                add(dayTotals, expiredFromDay, -1);
+            }
+            if (hours[hour] != null) {
+                add(weekTotals, hours[hour], -1);
+            }
+            hours[hour] = Bucket.of(currentHour);
+            currentHour = new HashMap<>();
+            hour = (hour + 1) % HOURS_PER_WEEK;
+        }
+
+        Map<String, List<Ranked>> ranked = new HashMap<>();
+        ranked.put(HOUR, rank(hourTotals));
+        ranked.put(DAY, rank(dayTotals));
+        ranked.put(WEEK, rank(weekTotals));
+        rankings = Collections.unmodifiableMap(ranked);
+    }
+
+    private static void add(Map<Integer, int[]> totals, Bucket bucket, int sign) {
+        for (int i = 0; i < bucket.ids.length; i++) {
+            int[] counts = totals.get(bucket.ids[i]);
+            if (counts == null) {
+                counts = new int[2];
+                totals.put(bucket.ids[i], counts);
+            }
+            counts[0] += sign * bucket.views[i];
+            counts[1] += sign * bucket.favorites[i];
+            if (counts[0] == 0 && counts[1] == 0) {
+                totals.remove(bucket.ids[i]);
+            }
+        }
+    }
+
+    private List<Ranked> rank(Map<Integer, int[]> totals) {
+        // min-heap of the best topN so far, the root is the first to go
+        PriorityQueue<Ranked> best = new PriorityQueue<>(topN + 1, Ranked.BY_SCORE);
+        for (Map.Entry<Integer, int[]> e: totals.entrySet()) {
+            int[] counts = e.getValue();
+            long score = counts[0] + (long) favoriteWeight * counts[1];
+            if (best.size() < topN || score > best.peek().score) {
+                best.add(new Ranked(e.getKey(), counts[0], counts[1], score));
+                if (best.size() > topN) {
+                    best.poll();
+                }
+            }
+        }
+        List<Ranked> ranking = new ArrayList<>(best);
+        ranking.sort(Ranked.BY_SCORE.reversed());
+        return Collections.unmodifiableList(ranking);
+    }
+
+    public static final class Ranked {
+        static final Comparator<Ranked> BY_SCORE = Comparator.<Ranked>comparingLong(r -> r.score)
+                .thenComparing(r -> -r.commodityId);
+
+        private final int commodityId;
+        private final int views;
+        private final int favorites;
+        private final long score;
+
+        Ranked(int commodityId, int views, int favorites, long score) {
+            this.commodityId = commodityId;
+            this.views = views;
+            this.favorites = favorites;
+            this.score = score;
+        }
+
+        public int getCommodityId() {
+            return commodityId;
+        }
+
+        public int getViews() {
+            return views;
+        }
+
+        public int getFavorites() {
+            return favorites;
+        }
+    }
+
+    private static final class Live {
+        final ConcurrentHashMap<Integer, LongAdder> views = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<Integer, LongAdder> favorites = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Counts of one closed minute or hour, as parallel arrays.
+     */
+    private static final class Bucket {
+        final int[] ids;
+        final int[] views;
+        final int[] favorites;
+
+        private Bucket(int size) {
+            ids = new int[size];
+            views = new int[size];
+            favorites = new int[size];
+        }
+
+        static Bucket of(Live live) {
+            Map<Integer, int[]> counts = new HashMap<>();
+            for (Map.Entry<Integer, LongAdder> e: live.views.entrySet()) {
+                counts.computeIfAbsent(e.getKey(), k -> new int[2])[0] = (int) e.getValue().sum();
+            }
+            for (Map.Entry<Integer, LongAdder> e: live.favorites.entrySet()) {
+                counts.computeIfAbsent(e.getKey(), k -> new int[2])[1] = (int) e.getValue().sum();
+            }
+            return of(counts);
+        }
+
+        static Bucket of(Map<Integer, int[]> counts) {
+            Bucket bucket = new Bucket(counts.size());
+            int i = 0;
+            for (Map.Entry<Integer, int[]> e: counts.entrySet()) {
+                bucket.ids[i] = e.getKey();
+                bucket.views[i] = e.getValue()[0];
+                bucket.favorites[i] = e.getValue()[1];
+                i++;
+            }
+            return bucket;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package plugins;
+
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.IPlugin;
+import com.jfinal.plugin.activerecord.Db;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind buffer for viewing_history.
+ *
+ * Views are acknowledged as soon as they are queued and a single flusher thread writes them as
+ * multi-row inserts once batchSize views are pending or flushIntervalMs has passed since the first
+ * pending one. When the queue is full, callers wait up to offerTimeoutMs before the view is dropped.
+ * Submits hold the read side of a lock and stop takes the write side to clear running, so a view either
+ * is refused or is queued before the final drain, never acknowledged and left in the queue.
+ * Must be added after the ActiveRecordPlugin so that it is stopped, and drained, before it.
+ */
+public class ViewingHistoryWriter implements IPlugin {
+    private static volatile ViewingHistoryWriter me;
+
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long offerTimeoutMs;
+
+    private BlockingQueue<ViewingEvent> queue;
+    private Thread flusher;
+    private volatile boolean running;
+    private final ReadWriteLock stopping = new ReentrantReadWriteLock();
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ViewingHistoryWriter(int capacity, int batchSize, long flushIntervalMs, long offerTimeoutMs) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.offerTimeoutMs = offerTimeoutMs;
+    }
+
+    public static ViewingHistoryWriter me() {
+        return me;
+    }
+
+    /**
+     * @return false if the view was dropped because the writer is stopped or stayed full
+     */
+    public boolean submit(int userId, int commodityId, long createTime) {
+        stopping.readLock().lock();
+        try {
+            if (running && queue.offer(new ViewingEvent(userId, commodityId, createTime), offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                queued.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopping.readLock().unlock();
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getFlushedCount() {
+        return flushed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getPendingCount() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public boolean start() {
+        queue = new ArrayBlockingQueue<>(capacity);
+        running = true;
+        flusher = new Thread(this::runFlusher, "viewing-history-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        me = this;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        // waits for the submits in flight, at most offerTimeoutMs
+        stopping.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stopping.writeLock().unlock();
+        }
+        try {
+            flusher.join(flushIntervalMs * 2 + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // whatever the flusher did not get to before the deadline
+        List<ViewingEvent> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+            batch.clear();
+        }
+        return true;
+    }
+
+    private void runFlusher() {
+        List<ViewingEvent> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ViewingEvent first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize && running) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    ViewingEvent next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<ViewingEvent> batch) {
+        StringBuilder sql = new StringBuilder("insert into viewing_history(user_id, commodity_id, create_time) values ");
+        Object[] paras = new Object[batch.size() * 3];
+        for (int i = 0; i < batch.size(); i++) {
+            ViewingEvent e = batch.get(i);
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+            paras[i * 3] = e.userId;
+            paras[i * 3 + 1] = e.commodityId;
+            paras[i * 3 + 2] = new Timestamp(e.createTime);
+        }
+        try {
+            Db.update(sql.toString(), paras);
+            flushed.addAndGet(batch.size());
+        } catch (Exception e) {
+            dropped.addAndGet(batch.size());
+            LogKit.error("Failed to flush " + batch.size() + " viewing history records", e);
+        }
+    }
+
+    private static final class ViewingEvent {
+        final int userId;
+        final int commodityId;
+        final long createTime;
+
+        ViewingEvent(int userId, int commodityId, long createTime) {
+            this.userId = userId;
+            this.commodityId = commodityId;
+            this.createTime = createTime;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package renders;
+
+import com.jfinal.kit.JsonKit;
+import com.jfinal.kit.LogKit;
+import com.jfinal.render.Render;
+import com.jfinal.render.RenderException;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * Renders the {code, data[, next]} / {code, msg} envelope of {@link interceptors.ResponseInterceptor}.
+ *
+ * Unlike JFinal's JsonRender it keeps a Cache-Control header already set for the action, and when the
+ * data is a {@link JsonStream} it is written straight to the response writer instead of being built
+ * as one string first. The container sends it chunked once its buffer fills up.
+ */
+public class JsonEnvelopeRender extends Render {
+    private final Map<String, Object> envelope;
+    private final int code;
+    private final JsonStream data;
+    private final Object next;
+
+    public JsonEnvelopeRender(Map<String, Object> envelope) {
+        this.envelope = envelope;
+        this.code = 0;
+        this.data = null;
+        this.next = null;
+    }
+
+    /**
+     * @param next cursor of the following page, null if there is none
+     */
+    public JsonEnvelopeRender(int code, JsonStream data, Object next) {
+        this.envelope = null;
+        this.code = code;
+        this.data = data;
+        this.next = next;
+    }
+
+    @Override
+    public void render() {
+        if (!response.containsHeader("Cache-Control")) {
+            response.setHeader("Pragma", "no-cache");
+            response.setHeader("Cache-Control", "no-cache");
+            response.setDateHeader("Expires", 0);
+        }
+        response.setContentType("application/json; charset=" + getEncoding());
+        try {
+            PrintWriter writer = response.getWriter();
+            if (data == null) {
+                writer.write(JsonKit.toJson(envelope));
+            } else {
+                writer.write("{\"code\":");
+                writer.write(Integer.toString(code));
+                writer.write(",\"data\":");
+                data.writeTo(writer);
+                if (next != null) {
+                    writer.write(",\"next\":");
+                    writer.write(JsonKit.toJson(next));
+                }
+                writer.write('}');
+            }
+            writer.flush();
+        } catch (Exception e) {
+            if (response.isCommitted()) {
+                // too late for an error response, the client sees truncated JSON
+                LogKit.error("Streaming response failed after it was committed", e);
+            } else {
+                throw new RenderException(e);
+            }
+        }
+    }
+}
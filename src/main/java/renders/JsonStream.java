@@ -0,0 +1,37 @@
+package renders;
+
+import com.jfinal.kit.JsonKit;
+import com.jfinal.plugin.activerecord.Model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * A JSON array written element by element, so that a page of rows never exists as one string.
+ * Set as response data through {@link controllers.BaseController#pageResponse(Object, Object)} and
+ * rendered by {@link JsonEnvelopeRender}.
+ */
+public abstract class JsonStream {
+
+    public abstract void writeTo(Writer out) throws IOException;
+
+    /**
+     * Rows already in memory, e.g. from the catalog snapshot.
+     */
+    public static JsonStream of(List<? extends Model<?>> rows) {
+        return new JsonStream() {
+            @Override
+            public void writeTo(Writer out) throws IOException {
+                out.write('[');
+                for (int i = 0; i < rows.size(); i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    out.write(JsonKit.toJson(rows.get(i)));
+                }
+                out.write(']');
+            }
+        };
+    }
+}
@@ -1,9 +1,21 @@
 package validators;
 
+import com.jfinal.core.Controller;
+
 /**
+ * One instance per subclass is shared by all requests, so implementations must be stateless.
+ *
  * @author Jieying Xu
  */
 public abstract class AbstractValidator {
     public abstract boolean validate(Object input);
     public abstract String getErrorMsg(String inputName);
+
+    /**
+     * Called by the interceptor with the current controller. Validators that load a record override this
+     * to publish it as a request attribute so that the action does not have to read it again.
+     */
+    public boolean validate(Controller c, Object input) {
+        return validate(input);
+    }
 }
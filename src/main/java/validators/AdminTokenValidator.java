@@ -0,0 +1,19 @@
+package validators;
+
+import com.jfinal.kit.PropKit;
+
+/**
+ * Compares the input with admin.token in app.properties. Always fails when no token is configured.
+ */
+public class AdminTokenValidator extends AbstractValidator {
+    @Override
+    public boolean validate(Object input) {
+        String token = PropKit.use("app.properties").get("admin.token");
+        return token != null && !token.isEmpty() && token.equals(input);
+    }
+
+    @Override
+    public String getErrorMsg(String inputName) {
+        return inputName + " is not valid!";
+    }
+}
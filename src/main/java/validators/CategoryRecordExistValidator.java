@@ -1,6 +1,7 @@
 package validators;
 
 import models.Category;
+import plugins.ExistenceIndex;
 
 /**
  * @author Jieying Xu
@@ -9,7 +10,17 @@ public class CategoryRecordExistValidator extends AbstractValidator {
     @Override
     public boolean validate(Object input) {
         String categoryName = (String)input;
-        return Category.dao.find("select * from category where name = ?", categoryName).size() != 0;
+        ExistenceIndex index = ExistenceIndex.me();
+        if (index != null && index.hasCategory(categoryName)) {
+            return true;
+        }
+        if (Category.dao.findFirst("select id from category where name = ?", categoryName) == null) {
+            return false;
+        }
+        if (index != null) {
+            index.addCategory(categoryName);
+        }
+        return true;
     }
 
     @Override
@@ -1,15 +1,41 @@
 package validators;
 
+import com.jfinal.core.Controller;
 import models.Commodity;
+import plugins.ExistenceIndex;
 
 /**
  * @author Jieying Xu
  */
 public class CommodityRecordExistValidator extends AbstractValidator {
+    /**
+     * Request attribute holding the commodity loaded during validation.
+     */
+    public static final String LOADED_ATTR = "_validatedCommodity";
+
     @Override
     public boolean validate(Object input) {
-        String commodityId = (String)input;
-        return Commodity.dao.findById(commodityId) != null;
+        return validate(null, input);
+    }
+
+    @Override
+    public boolean validate(Controller c, Object input) {
+        int commodityId = Integer.parseInt((String)input);
+        ExistenceIndex index = ExistenceIndex.me();
+        if (index != null && index.hasCommodity(commodityId)) {
+            return true;
+        }
+        Commodity commodity = Commodity.dao.findById(commodityId);
+        if (commodity == null) {
+            return false;
+        }
+        if (index != null) {
+            index.addCommodity(commodityId);
+        }
+        if (c != null) {
+            c.setAttr(LOADED_ATTR, commodity);
+        }
+        return true;
     }
 
     @Override
@@ -0,0 +1,29 @@
+package validators;
+
+import config.Const;
+
+/**
+ * Comma separated list of 1 to {@link Const#MAX_BATCH_SIZE} integers, e.g. "3,14,15".
+ */
+public class IntegerListValidator extends AbstractValidator {
+    @Override
+    public boolean validate(Object input) {
+        String[] items = ((String) input).split(",");
+        if (items.length > Const.MAX_BATCH_SIZE) {
+            return false;
+        }
+        try {
+            for (String item: items) {
+                Integer.parseInt(item.trim());
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getErrorMsg(String inputName) {
+        return inputName + " should be a comma separated list of at most " + Const.MAX_BATCH_SIZE + " ints!";
+    }
+}
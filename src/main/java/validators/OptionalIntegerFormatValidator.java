@@ -0,0 +1,25 @@
+package validators;
+
+/**
+ * Accepts a missing parameter, otherwise behaves like {@link IntegerFormatValidator}.
+ */
+public class OptionalIntegerFormatValidator extends AbstractValidator {
+    @Override
+    public boolean validate(Object input) {
+        if (input == null) {
+            return true;
+        }
+        String idStr = (String)input;
+        try {
+            Integer.parseInt(idStr.trim());
+            return true;
+        } catch(NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getErrorMsg(String inputName) {
+        return inputName + " should be legal int format!";
+    }
+}
@@ -0,0 +1,25 @@
+package validators;
+
+/**
+ * Accepts a missing parameter, otherwise requires a legal long, e.g. an epoch-millis cursor.
+ */
+public class OptionalLongFormatValidator extends AbstractValidator {
+    @Override
+    public boolean validate(Object input) {
+        if (input == null) {
+            return true;
+        }
+        String str = (String)input;
+        try {
+            Long.parseLong(str.trim());
+            return true;
+        } catch(NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getErrorMsg(String inputName) {
+        return inputName + " should be legal long format!";
+    }
+}
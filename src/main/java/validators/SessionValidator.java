@@ -0,0 +1,38 @@
+package validators;
+
+import com.jfinal.core.Controller;
+import plugins.SessionStore;
+
+/**
+ * Resolves a session token issued at login and publishes the user id of the session for the action,
+ * see {@link controllers.BaseController#getSessionUserId()}. No database access.
+ */
+public class SessionValidator extends AbstractValidator {
+    /**
+     * Request attribute holding the user id of the session.
+     */
+    public static final String USER_ID_ATTR = "_sessionUserId";
+
+    @Override
+    public boolean validate(Object input) {
+        return validate(null, input);
+    }
+
+    @Override
+    public boolean validate(Controller c, Object input) {
+        SessionStore store = SessionStore.me();
+        Integer userId = store == null ? null : store.getUserId(((String) input).trim());
+        if (userId == null) {
+            return false;
+        }
+        if (c != null) {
+            c.setAttr(USER_ID_ATTR, userId);
+        }
+        return true;
+    }
+
+    @Override
+    public String getErrorMsg(String inputName) {
+        return "Session expired, please log in again!";
+    }
+}
@@ -1,6 +1,7 @@
 package validators;
 
 import models.TpUser;
+import plugins.ExistenceIndex;
 
 /**
  * @author Jieying Xu
@@ -9,8 +10,18 @@ public class TpRecordExistValidator extends AbstractValidator {
     @Override
     public boolean validate(Object input) {
         String tpId = (String)input;
-        TpUser myUser = TpUser.dao.findFirst("select * from tp_user where tp_id = ?", tpId);
-        return myUser != null;
+        ExistenceIndex index = ExistenceIndex.me();
+        if (index != null && index.hasTpId(tpId)) {
+            return true;
+        }
+        TpUser myUser = TpUser.dao.findFirst("select tp_id from tp_user where tp_id = ?", tpId);
+        if (myUser == null) {
+            return false;
+        }
+        if (index != null) {
+            index.addTpId(tpId);
+        }
+        return true;
     }
 
     @Override
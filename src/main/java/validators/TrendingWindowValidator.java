@@ -0,0 +1,18 @@
+package validators;
+
+import plugins.TrendingBoard;
+
+/**
+ * Accepts a missing parameter, otherwise one of hour, day and week.
+ */
+public class TrendingWindowValidator extends AbstractValidator {
+    @Override
+    public boolean validate(Object input) {
+        return input == null || TrendingBoard.isWindow(((String) input).trim());
+    }
+
+    @Override
+    public String getErrorMsg(String inputName) {
+        return inputName + " should be hour, day or week!";
+    }
+}
@@ -0,0 +1,361 @@
+package config;
+
+import com.alibaba.druid.support.json.JSONUtils;
+import com.jfinal.kit.PropKit;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Boots the application once per test JVM the way web.xml does, in Jetty, on H2 databases in MySQL mode:
+ * master in memory, and replica0 served by an H2 TCP server so that tests can take it down. Both are
+ * created with the schema the app queries and seeded with the same synthetic data. The default scale
+ * keeps the suite fast; -Dtest.scale=full, set by the scale profile, seeds production sized tables.
+ */
+public final class TestApp {
+    public static final String ADMIN_TOKEN = "test-admin-token";
+
+    public static final boolean FULL_SCALE = "full".equals(System.getProperty("test.scale"));
+    public static final int BRANDS = 40;
+    public static final int CATEGORIES = 20;
+    public static final int COMMODITIES = FULL_SCALE ? 50000 : 5000;
+    public static final int USERS = FULL_SCALE ? 100000 : 300;
+    public static final int VIEWS_PER_USER = FULL_SCALE ? 20 : 100;
+    /**
+     * Users 1 to TP_USERS are bound to the google account "google-&lt;user id&gt;".
+     */
+    public static final int TP_USERS = 100;
+    public static final int NO_FAVORITES_USER = 1;
+    public static final int ONE_FAVORITE_USER = 2;
+    public static final int MANY_FAVORITES_USER = 3;
+    public static final int MANY_FAVORITES = 180;
+
+    private static final String SETTINGS = ";MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;DATABASE_TO_UPPER=FALSE";
+    /**
+     * In-process URLs of the two databases, still open while the replica's TCP server is stopped.
+     */
+    public static final String MASTER_URL = "jdbc:h2:mem:tio_master" + SETTINGS;
+    public static final String REPLICA_URL = "jdbc:h2:mem:tio_replica" + SETTINGS;
+
+    private static final String[] SCHEMA = {
+            "create table user (id int auto_increment primary key, account varchar(255) not null unique, " +
+                    "nickname varchar(255), password varchar(255))",
+            "create table brand (id int auto_increment primary key, name varchar(255), logo varchar(255), " +
+                    "`desc` varchar(1024))",
+            "create table category (id int auto_increment primary key, name varchar(255) not null unique)",
+            "create table commodity (id int auto_increment primary key, name varchar(255), desc_img varchar(255), " +
+                    "brand_id int, category_id int)",
+            "create index commodity_category on commodity(category_id, id)",
+            "create table favorite_list (user_id int not null, commodity_id int not null, " +
+                    "primary key (user_id, commodity_id))",
+            "create table tp_shop (id int auto_increment primary key, name varchar(255), url varchar(255))",
+            "create table tp_user (id int auto_increment primary key, tp_id varchar(255) not null unique, " +
+                    "user_id int not null, type varchar(32) not null)",
+            "create table viewing_history (id bigint auto_increment primary key, user_id int not null, " +
+                    "commodity_id int not null, create_time timestamp not null)",
+            "create index viewing_history_user on viewing_history(user_id, create_time)",
+            "create index viewing_history_time on viewing_history(create_time)"
+    };
+    private static final String[] PRODUCTS = {"Lipstick", "Foundation", "Mascara", "Eyeliner", "Blush", "Serum"};
+    private static final String[] SHADES = {"Rouge", "Nude", "Coral", "Plum", "Ivory", "Bronze", "Rose"};
+
+    private static String baseUrl;
+    private static org.h2.tools.Server replicaServer;
+    private static int replicaPort;
+
+    private TestApp() {
+    }
+
+    /**
+     * Creates and seeds the databases, then starts the app and waits for its warmup; later calls return at once.
+     */
+    public static synchronized void start() throws Exception {
+        if (baseUrl != null) {
+            return;
+        }
+        try (ServerSocket socket = new ServerSocket(0)) {
+            replicaPort = socket.getLocalPort();
+        }
+        startReplica();
+        for (String url: new String[]{MASTER_URL, REPLICA_URL}) {
+            try (Connection conn = connect(url)) {
+                createSchema(conn);
+                seed(conn);
+            }
+        }
+
+        Properties dataSources = PropKit.use("datasource.properties").getProperties();
+        configureDataSource(dataSources, "master", MASTER_URL);
+        configureDataSource(dataSources, "replica0",
+                "jdbc:h2:tcp://localhost:" + replicaPort + "/mem:tio_replica" + SETTINGS);
+        dataSources.setProperty("replica0.max_wait_ms", "1000");
+        Properties app = PropKit.use("app.properties").getProperties();
+        app.setProperty("admin.token", ADMIN_TOKEN);
+        app.setProperty("warmup.rounds", "1");
+        // the tests decide when the catalog, the index and the replica state change
+        app.setProperty("catalog.refresh_interval_sec", "0");
+        app.setProperty("existence_index.reconcile_interval_sec", "0");
+        app.setProperty("replica.health_check_interval_sec", "0");
+
+        Server jetty = new Server(0);
+        WebAppContext context = new WebAppContext("src/main/webapp", "/");
+        context.setParentLoaderPriority(true);
+        context.setThrowUnavailableOnStartupException(true);
+        jetty.setHandler(context);
+        jetty.start();
+        String url = "http://localhost:" + jetty.getConnectors()[0].getLocalPort();
+        long deadline = System.currentTimeMillis() + 60000;
+        while (status(url + "/health/ready") != HttpURLConnection.HTTP_OK) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("The app did not get ready");
+            }
+            Thread.sleep(50);
+        }
+        baseUrl = url;
+    }
+
+    public static synchronized void startReplica() throws SQLException {
+        replicaServer = org.h2.tools.Server.createTcpServer("-tcpPort", String.valueOf(replicaPort), "-tcpDaemon").start();
+    }
+
+    /**
+     * Stops the replica's TCP server, closing every connection the app holds to it.
+     */
+    public static synchronized void stopReplica() {
+        replicaServer.stop();
+    }
+
+    /**
+     * @return the response envelope of a GET request, params being name and value pairs
+     */
+    public static Map<String, Object> get(String path, Object... params) throws IOException {
+        return envelope(request("GET", path, params));
+    }
+
+    /**
+     * @return the response envelope of a form POST request, params being name and value pairs
+     */
+    public static Map<String, Object> post(String path, Object... params) throws IOException {
+        return envelope(request("POST", path, params));
+    }
+
+    /**
+     * @return the body of a GET request, for the actions answering plain text
+     */
+    public static String getText(String path, Object... params) throws IOException {
+        return request("GET", path, params);
+    }
+
+    public static String account(int userId) {
+        return "user" + userId + "@example.com";
+    }
+
+    public static String password(int userId) {
+        return "secret" + userId;
+    }
+
+    public static int execute(String url, String sql, Object... params) throws SQLException {
+        try (Connection conn = connect(url);
+             PreparedStatement pst = prepare(conn, sql, params)) {
+            return pst.executeUpdate();
+        }
+    }
+
+    public static int queryInt(String url, String sql, Object... params) throws SQLException {
+        try (Connection conn = connect(url);
+             PreparedStatement pst = prepare(conn, sql, params);
+             ResultSet rs = pst.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static Connection connect(String url) throws SQLException {
+        return DriverManager.getConnection(url, "sa", "");
+    }
+
+    private static PreparedStatement prepare(Connection conn, String sql, Object[] params) throws SQLException {
+        PreparedStatement pst = conn.prepareStatement(sql);
+        for (int i = 0; i < params.length; i++) {
+            pst.setObject(i + 1, params[i]);
+        }
+        return pst;
+    }
+
+    private static void configureDataSource(Properties dataSources, String name, String url) {
+        dataSources.setProperty(name + ".url", url);
+        dataSources.setProperty(name + ".username", "sa");
+        dataSources.setProperty(name + ".password", "");
+        dataSources.setProperty(name + ".type", "mysql");
+        dataSources.setProperty(name + ".max_connections", "5");
+        dataSources.setProperty(name + ".initial_size", "1");
+        dataSources.setProperty(name + ".min_idle", "1");
+        dataSources.setProperty(name + ".validation_query", "select 1");
+        // MySQL driver settings, H2 rejects them
+        dataSources.remove(name + ".connection_properties");
+    }
+
+    private static void createSchema(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            for (String sql: SCHEMA) {
+                st.execute(sql);
+            }
+        }
+    }
+
+    private static void seed(Connection conn) throws SQLException {
+        conn.setAutoCommit(false);
+        batch(conn, "insert into brand(id, name, logo, `desc`) values (?, ?, ?, ?)", BRANDS, (pst, i) -> {
+            pst.setInt(1, i);
+            pst.setString(2, "Brand" + i);
+            pst.setString(3, "https://img.example.com/brand/" + i + ".png");
+            pst.setString(4, "Brand" + i + " is a beauty house founded in " + (1900 + i) + ".");
+        });
+        batch(conn, "insert into category(id, name) values (?, ?)", CATEGORIES, (pst, i) -> {
+            pst.setInt(1, i);
+            pst.setString(2, "category-" + i);
+        });
+        batch(conn, "insert into commodity(id, name, desc_img, brand_id, category_id) values (?, ?, ?, ?, ?)",
+                COMMODITIES, (pst, i) -> {
+                    pst.setInt(1, i);
+                    pst.setString(2, SHADES[i % SHADES.length] + " " + PRODUCTS[i % PRODUCTS.length] + " " + i);
+                    pst.setString(3, "https://img.example.com/commodity/" + i + ".jpg");
+                    pst.setInt(4, i % BRANDS + 1);
+                    pst.setInt(5, i % CATEGORIES + 1);
+                });
+        batch(conn, "insert into user(id, account, nickname, password) values (?, ?, ?, ?)", USERS, (pst, i) -> {
+            pst.setInt(1, i);
+            pst.setString(2, account(i));
+            pst.setString(3, "user" + i);
+            pst.setString(4, password(i));
+        });
+        batch(conn, "insert into tp_user(tp_id, user_id, type) values (?, ?, 'google')", TP_USERS, (pst, i) -> {
+            pst.setString(1, "google-" + i);
+            pst.setInt(2, i);
+        });
+        try (PreparedStatement pst = conn.prepareStatement(
+                "insert into favorite_list(user_id, commodity_id) values (?, ?)")) {
+            for (int user = 1; user <= USERS; user++) {
+                for (int k = 0; k < favoriteCount(user); k++) {
+                    pst.setInt(1, user);
+                    pst.setInt(2, favorite(user, k));
+                    pst.addBatch();
+                }
+                pst.executeBatch();
+            }
+        }
+        long now = System.currentTimeMillis();
+        try (PreparedStatement pst = conn.prepareStatement(
+                "insert into viewing_history(user_id, commodity_id, create_time) values (?, ?, ?)")) {
+            for (int user = 1; user <= USERS; user++) {
+                for (int k = 0; k < VIEWS_PER_USER; k++) {
+                    pst.setInt(1, user);
+                    pst.setInt(2, (user * 31 + k * 17) % COMMODITIES + 1);
+                    pst.setTimestamp(3, new Timestamp(now - (k * 7L + user) * 60000L));
+                    pst.addBatch();
+                }
+                pst.executeBatch();
+            }
+        }
+        conn.commit();
+        conn.setAutoCommit(true);
+    }
+
+    public static int favoriteCount(int userId) {
+        switch (userId) {
+            case NO_FAVORITES_USER:
+                return 0;
+            case ONE_FAVORITE_USER:
+                return 1;
+            case MANY_FAVORITES_USER:
+                return MANY_FAVORITES;
+            default:
+                return userId % 25;
+        }
+    }
+
+    /**
+     * @return commodity id of the k-th favorite of a user, ascending in k
+     */
+    public static int favorite(int userId, int k) {
+        return (userId % 7) + k * 23 + 1;
+    }
+
+    private static void batch(Connection conn, String sql, int rows, Row row) throws SQLException {
+        try (PreparedStatement pst = conn.prepareStatement(sql)) {
+            for (int i = 1; i <= rows; i++) {
+                row.set(pst, i);
+                pst.addBatch();
+            }
+            pst.executeBatch();
+        }
+    }
+
+    private interface Row {
+        void set(PreparedStatement pst, int i) throws SQLException;
+    }
+
+    private static String request(String method, String path, Object[] params) throws IOException {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < params.length; i += 2) {
+            query.append(i == 0 ? "" : "&").append(params[i]).append('=')
+                    .append(URLEncoder.encode(String.valueOf(params[i + 1]), "UTF-8"));
+        }
+        boolean get = "GET".equals(method);
+        URL url = new URL(baseUrl + path + (get && query.length() > 0 ? "?" + query : ""));
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        if (!get) {
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(query.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try (InputStream in = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; in != null && (n = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, n);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> envelope(String body) {
+        Object json = JSONUtils.parse(body);
+        if (!(json instanceof Map)) {
+            throw new IllegalStateException("Not a JSON envelope: " + body);
+        }
+        return (Map<String, Object>) json;
+    }
+
+    private static int status(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            return conn.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            conn.disconnect();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package controllers;
+
+import annotations.QueryBudget;
+import com.jfinal.core.Action;
+import com.jfinal.core.JFinal;
+import com.jfinal.kit.PropKit;
+import config.TestApp;
+import metrics.ActionMetrics;
+import metrics.MetricsRegistry;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import plugins.SessionStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Calls every action against the seeded databases, on the path doing the most database work: cold
+ * caches, ids missing from the catalog snapshot and the existence index, and large result sets. Fails
+ * when a request executes more statements than its action's {@link QueryBudget}, and prints the
+ * statements and latency of each request.
+ */
+public class ActionQueryBudgetTest {
+    /**
+     * Created after start, so that they are only found in the database.
+     */
+    private static final int NEW_COMMODITY = TestApp.COMMODITIES + 1;
+    private static final String NEW_CATEGORY = "category-new";
+    private static final int NEW_CATEGORY_ID = TestApp.CATEGORIES + 1;
+    /**
+     * Never seeded.
+     */
+    private static final int MISSING_COMMODITY = 999999;
+
+    private final List<String> violations = new ArrayList<>();
+    private final List<String> report = new ArrayList<>();
+    private final Set<String> exercised = new TreeSet<>();
+
+    @BeforeClass
+    public static void startApp() throws Exception {
+        TestApp.start();
+        for (String url: new String[]{TestApp.MASTER_URL, TestApp.REPLICA_URL}) {
+            TestApp.execute(url, "insert into category(id, name) values (?, ?)", NEW_CATEGORY_ID, NEW_CATEGORY);
+            for (int k = 0; k < 10; k++) {
+                TestApp.execute(url, "insert into commodity(id, name, desc_img, brand_id, category_id) values (?, ?, ?, ?, ?)",
+                        NEW_COMMODITY + k, "New Lipstick " + k, "https://img.example.com/new.jpg", 1, NEW_CATEGORY_ID);
+            }
+        }
+    }
+
+    @Test
+    public void everyActionStaysWithinItsBudget() throws Exception {
+        // user actions, each on a user whose favorites are not cached yet
+        int many = TestApp.MANY_FAVORITES_USER;
+        post("/user/createAccount", "account", "budget@example.com", "nickname", "budget", "password", "pw");
+        get("/user/login", "account", TestApp.account(many), "password", TestApp.password(many));
+        get("/user/loginWithTpId", "tpId", "google-5", "type", "google");
+        post("/user/logout", "token", session(many));
+        post("/user/changeNickname", "token", session(10), "newNickname", "renamed");
+        post("/user/changePassword", "token", session(11), "oldPassword", TestApp.password(11), "newPassword", "pw");
+        post("/user/bindTpIdWithUserId", "token", session(TestApp.USERS), "tpId", "google-budget", "type", "google");
+        get("/user/favoriteList", "token", session(many), "limit", "200");
+        get("/user/viewingHistory", "token", session(many), "limit", "200");
+        get("/user/viewingHistory", "token", session(many), "before", System.currentTimeMillis(), "beforeCommodityId", "1");
+
+        // catalog reads, from the snapshot or the database for what was created since
+        get("/commodity/listAll", "limit", "200");
+        get("/commodity/list", "categoryName", "category-3", "limit", "200");
+        get("/commodity/list", "categoryName", NEW_CATEGORY, "limit", "200");
+        get("/commodity/search", "q", "rouge lip", "limit", "200");
+        get("/commodity/tryOn", "commodityId", NEW_COMMODITY);
+        get("/commodity/detail", "commodityId", NEW_COMMODITY + 1);
+        get("/commodity/details", "commodityIds", "1,2,3," + (NEW_COMMODITY + 2) + "," + MISSING_COMMODITY);
+        get("/commodity/related", "commodityId", NEW_COMMODITY + 3);
+        get("/commodity/trending", "window", "week");
+
+        // favorites and views
+        get("/commodity/checkIsFavorite", "token", session(12), "commodityId", NEW_COMMODITY + 4);
+        get("/commodity/checkFavorites", "token", session(13), "commodityIds", "1,2,3,4,5,6,7,8,9,10");
+        post("/commodity/addFavorite", "token", session(14), "commodityId", NEW_COMMODITY + 5);
+        post("/commodity/delFavorite", "token", session(15), "commodityId", TestApp.favorite(15, 0));
+        post("/commodity/addFavorites", "token", session(16),
+                "commodityIds", "100,101,102," + (NEW_COMMODITY + 6) + "," + MISSING_COMMODITY);
+        post("/commodity/delFavorites", "token", session(17),
+                "commodityIds", TestApp.favorite(17, 0) + "," + TestApp.favorite(17, 1) + ",4999");
+        post("/commodity/addViewing", "token", session(18), "commodityId", NEW_COMMODITY + 7);
+
+        // operations
+        get("/admin/catalogStats", "token", TestApp.ADMIN_TOKEN);
+        get("/admin/slowQueries", "token", TestApp.ADMIN_TOKEN);
+        measure("/metrics", () -> assertTrue(TestApp.getText("/metrics", "token", TestApp.ADMIN_TOKEN)
+                .contains("tio_action_statements_total")));
+        post("/admin/reloadCatalog", "token", TestApp.ADMIN_TOKEN);
+
+        System.out.println("statements/budget and latency per request, " + TestApp.USERS + " users, "
+                + TestApp.COMMODITIES + " commodities, " + TestApp.USERS * TestApp.VIEWS_PER_USER + " views");
+        for (String line: report) {
+            System.out.println(line);
+        }
+        assertTrue(String.join("\n", violations), violations.isEmpty());
+        Set<String> missed = new TreeSet<>(JFinal.me().getAllActionKeys());
+        missed.removeAll(exercised);
+        // the probe clears every global interceptor, the budget one included
+        missed.remove("/health/ready");
+        assertTrue("Actions without a budget check: " + missed, missed.isEmpty());
+    }
+
+    private static String session(int userId) {
+        return SessionStore.me().create(userId);
+    }
+
+    private void get(String actionKey, Object... params) throws Exception {
+        measure(actionKey, () -> assertSuccess(actionKey, TestApp.get(actionKey, params)));
+    }
+
+    private void post(String actionKey, Object... params) throws Exception {
+        measure(actionKey, () -> assertSuccess(actionKey, TestApp.post(actionKey, params)));
+    }
+
+    private static void assertSuccess(String actionKey, Map<String, Object> envelope) {
+        assertEquals(actionKey + " " + envelope, 0, ((Number) envelope.get("code")).intValue());
+    }
+
+    private void measure(String actionKey, Call call) throws Exception {
+        ActionMetrics metrics = MetricsRegistry.action(actionKey);
+        long statements = metrics.getStatements();
+        long overBudget = metrics.getOverBudget();
+        long start = System.nanoTime();
+        call.run();
+        double millis = (System.nanoTime() - start) / 1e6;
+        long executed = metrics.getStatements() - statements;
+        int budget = budget(actionKey);
+        if (metrics.getOverBudget() != overBudget || executed > budget) {
+            violations.add(actionKey + " executed " + executed + " statements, its budget is " + budget);
+        }
+        report.add(String.format("%-30s %3d/%-3d %9.2f ms", actionKey, executed, budget, millis));
+        exercised.add(actionKey);
+    }
+
+    private static int budget(String actionKey) {
+        Action action = JFinal.me().getAction(actionKey, new String[1]);
+        QueryBudget budget = action.getMethod().getAnnotation(QueryBudget.class);
+        return budget != null ? budget.value() : PropKit.use("app.properties").getInt("query_budget.default", 5);
+    }
+
+    private interface Call {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,84 @@
+package controllers;
+
+import config.TestApp;
+import metrics.ActionMetrics;
+import metrics.MetricsRegistry;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import plugins.SessionStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * /user/favoriteList reads a page of favorites with their commodity and brand in one statement, however
+ * many favorites the user has, and returns the cursor of the following page unless it is the last one.
+ */
+public class FavoriteListTest {
+    private static final String ACTION = "/user/favoriteList";
+    /**
+     * The page query, the session is resolved in memory.
+     */
+    private static final int STATEMENTS = 1;
+
+    @BeforeClass
+    public static void startApp() throws Exception {
+        TestApp.start();
+    }
+
+    @Test
+    public void sameStatementsWithoutFavorites() throws Exception {
+        assertPage(TestApp.NO_FAVORITES_USER, 0, 200, 0, TestApp.favoriteCount(TestApp.NO_FAVORITES_USER));
+    }
+
+    @Test
+    public void sameStatementsWithOneFavorite() throws Exception {
+        assertPage(TestApp.ONE_FAVORITE_USER, 0, 200, 0, 1);
+    }
+
+    @Test
+    public void sameStatementsWithManyFavorites() throws Exception {
+        assertPage(TestApp.MANY_FAVORITES_USER, 0, 200, 0, TestApp.MANY_FAVORITES);
+    }
+
+    @Test
+    public void sameStatementsForEveryPage() throws Exception {
+        int user = TestApp.MANY_FAVORITES_USER;
+        assertPage(user, 0, 50, 0, 50);
+        assertPage(user, TestApp.favorite(user, 49), 50, 50, 50);
+        assertPage(user, TestApp.favorite(user, 149), 50, 150, TestApp.MANY_FAVORITES - 150);
+    }
+
+    /**
+     * Asserts that a page holds the favorites from the first-th on, in commodity id order, with their brand,
+     * and the id of its last favorite as next unless no favorite follows.
+     */
+    @SuppressWarnings("unchecked")
+    private static void assertPage(int userId, int afterCommodityId, int limit, int first, int size) throws Exception {
+        String token = SessionStore.me().create(userId);
+        ActionMetrics metrics = MetricsRegistry.action(ACTION);
+        long statements = metrics.getStatements();
+        Map<String, Object> envelope = TestApp.get(ACTION, "token", token,
+                "afterCommodityId", afterCommodityId, "limit", limit);
+        assertEquals(envelope.toString(), 0, ((Number) envelope.get("code")).intValue());
+        assertEquals(STATEMENTS, metrics.getStatements() - statements);
+
+        List<Map<String, Object>> rows = (List<Map<String, Object>>) envelope.get("data");
+        List<Integer> expected = new ArrayList<>();
+        for (int k = first; k < first + size; k++) {
+            expected.add(TestApp.favorite(userId, k));
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (Map<String, Object> row: rows) {
+            int id = ((Number) row.get("commodity_id")).intValue();
+            ids.add(id);
+            assertEquals(row.toString(), "Brand" + (id % TestApp.BRANDS + 1), row.get("brand_name"));
+        }
+        assertEquals(expected, ids);
+        Object next = first + size < TestApp.favoriteCount(userId) ? TestApp.favorite(userId, first + size - 1) : null;
+        assertEquals(next, envelope.get("next") == null ? null : ((Number) envelope.get("next")).intValue());
+    }
+}
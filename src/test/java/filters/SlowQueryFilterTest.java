@@ -0,0 +1,90 @@
+package filters;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import controllers.UserController;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Every statement is slow with a zero threshold, so each one executed on the pool is captured.
+ */
+public class SlowQueryFilterTest {
+    private static final String PASSWORD = "hunter2-plaintext";
+
+    private static DruidDataSource dataSource;
+    private static SlowQueryFilter filter;
+
+    @BeforeClass
+    public static void createPool() throws SQLException {
+        filter = new SlowQueryFilter(0, 16, 16, false);
+        dataSource = new DruidDataSource();
+        dataSource.setUrl("jdbc:h2:mem:slow_query_filter;MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setProxyFilters(Collections.singletonList(filter));
+        dataSource.init();
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("create table user (id int auto_increment primary key, account varchar(255), " +
+                    "nickname varchar(255), password varchar(255))");
+        }
+    }
+
+    @AfterClass
+    public static void closePool() {
+        dataSource.close();
+    }
+
+    @Test
+    public void masksThePasswordOfALogin() throws SQLException {
+        List<Object> params = execute(UserController.LOGIN_SQL, "login@example.com", PASSWORD);
+        assertEquals(Arrays.asList("login@example.com", SlowQueryFilter.MASKED), params);
+    }
+
+    @Test
+    public void masksThePasswordOfANewAccount() throws SQLException {
+        // as issued by Model.save
+        List<Object> params = execute("insert into `user`(`account`, `nickname`, `password`) values(?, ?, ?)",
+                "new@example.com", "new", PASSWORD);
+        assertEquals(Arrays.asList("new@example.com", "new", SlowQueryFilter.MASKED), params);
+    }
+
+    @Test
+    public void masksAChangedPassword() throws SQLException {
+        // as issued by Model.update
+        List<Object> params = execute("update `user` set `password` = ? where `id` = ?", PASSWORD, 1);
+        assertEquals(Arrays.asList(SlowQueryFilter.MASKED, 1), params);
+    }
+
+    @Test
+    public void keepsOtherParameters() throws SQLException {
+        List<Object> params = execute("select * from user where account = ? and nickname like ? limit ?",
+                "kept@example.com", "kept%", 10);
+        assertEquals(Arrays.asList("kept@example.com", "kept%", 10), params);
+    }
+
+    /**
+     * @return the parameters captured for the statement
+     */
+    private static List<Object> execute(String sql, Object... params) throws SQLException {
+        try (Connection conn = dataSource.getConnection(); PreparedStatement pst = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pst.setObject(i + 1, params[i]);
+            }
+            pst.execute();
+        }
+        SlowQueryFilter.SlowQuery query = filter.getRecent().get(0);
+        assertEquals(sql, query.sql);
+        return Arrays.asList(query.params);
+    }
+}
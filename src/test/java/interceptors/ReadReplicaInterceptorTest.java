@@ -0,0 +1,142 @@
+package interceptors;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jfinal.plugin.activerecord.DbKit;
+import config.TestApp;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import plugins.ReplicaRouter;
+import plugins.SessionStore;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Read-only actions go to replica0 and everything else to master. The two test databases are not
+ * replicated, so a row inserted into only one of them shows which database answered.
+ */
+public class ReadReplicaInterceptorTest {
+    private static final int USER = 40;
+    private static final int REPLICA_ONLY = TestApp.COMMODITIES - 1;
+    private static final int MASTER_ONLY = TestApp.COMMODITIES - 2;
+    private static final String MASTER_ONLY_ACCOUNT = "master-only@example.com";
+
+    private boolean replicaStopped;
+
+    @BeforeClass
+    public static void startApp() throws Exception {
+        TestApp.start();
+    }
+
+    @After
+    public void restore() throws Exception {
+        // H2 has no exception sorter, connections broken by the outage stay pooled until a restart; done
+        // while the replica is still down, so that the pool's old creator thread can not add to the new pool
+        replicaDataSource().restart();
+        if (replicaStopped) {
+            TestApp.startReplica();
+            replicaStopped = false;
+        }
+        ReplicaRouter.me().checkHealth();
+        assertEquals(1, ReplicaRouter.me().getHealthyCount());
+        for (String url: new String[]{TestApp.MASTER_URL, TestApp.REPLICA_URL}) {
+            TestApp.execute(url, "delete from favorite_list where user_id = ? and commodity_id in (?, ?)",
+                    USER, REPLICA_ONLY, MASTER_ONLY);
+        }
+        TestApp.execute(TestApp.MASTER_URL, "delete from user where account = ?", MASTER_ONLY_ACCOUNT);
+    }
+
+    @Test
+    public void getActionsReadFromTheReplica() throws Exception {
+        addFavorite(TestApp.REPLICA_URL, REPLICA_ONLY);
+        addFavorite(TestApp.MASTER_URL, MASTER_ONLY);
+
+        List<Integer> favorites = favoriteList();
+        assertTrue(favorites.contains(REPLICA_ONLY));
+        assertFalse(favorites.contains(MASTER_ONLY));
+    }
+
+    @Test
+    public void writesGoToMaster() throws Exception {
+        String token = SessionStore.me().create(USER);
+        Map<String, Object> envelope = TestApp.post("/commodity/addFavorite", "token", token, "commodityId", MASTER_ONLY);
+        assertEquals(envelope.toString(), 0, ((Number) envelope.get("code")).intValue());
+
+        assertEquals(1, countFavorite(TestApp.MASTER_URL, MASTER_ONLY));
+        assertEquals(0, countFavorite(TestApp.REPLICA_URL, MASTER_ONLY));
+
+        envelope = TestApp.post("/commodity/delFavorite", "token", token, "commodityId", MASTER_ONLY);
+        assertEquals(envelope.toString(), 0, ((Number) envelope.get("code")).intValue());
+        assertEquals(0, countFavorite(TestApp.MASTER_URL, MASTER_ONLY));
+        SessionStore.me().remove(token);
+    }
+
+    @Test
+    public void loginReadsFromMaster() throws Exception {
+        // an account created a moment ago, not replicated yet
+        TestApp.execute(TestApp.MASTER_URL, "insert into user(account, nickname, password) values (?, ?, ?)",
+                MASTER_ONLY_ACCOUNT, "master", "pw");
+        Map<String, Object> envelope = TestApp.get("/user/login", "account", MASTER_ONLY_ACCOUNT, "password", "pw");
+        assertEquals(envelope.toString(), 0, ((Number) envelope.get("code")).intValue());
+    }
+
+    @Test
+    public void readsFallBackToMasterWhenTheHealthCheckFails() throws Exception {
+        addFavorite(TestApp.REPLICA_URL, REPLICA_ONLY);
+        addFavorite(TestApp.MASTER_URL, MASTER_ONLY);
+        TestApp.stopReplica();
+        replicaStopped = true;
+
+        ReplicaRouter.me().checkHealth();
+        assertEquals(0, ReplicaRouter.me().getHealthyCount());
+        List<Integer> favorites = favoriteList();
+        assertTrue(favorites.contains(MASTER_ONLY));
+        assertFalse(favorites.contains(REPLICA_ONLY));
+    }
+
+    @Test
+    public void readsFallBackToMasterWhenTheReplicaRefusesConnections() throws Exception {
+        addFavorite(TestApp.MASTER_URL, MASTER_ONLY);
+        TestApp.stopReplica();
+        replicaStopped = true;
+        // an empty pool has to connect, which fails during the request rather than in a health check
+        replicaDataSource().restart();
+        assertEquals(1, ReplicaRouter.me().getHealthyCount());
+
+        assertTrue(favoriteList().contains(MASTER_ONLY));
+        assertEquals(0, ReplicaRouter.me().getHealthyCount());
+    }
+
+    private static DruidDataSource replicaDataSource() {
+        return (DruidDataSource) DbKit.getConfig("replica0").getDataSource();
+    }
+
+    private static void addFavorite(String url, int commodityId) throws SQLException {
+        TestApp.execute(url, "insert into favorite_list(user_id, commodity_id) values (?, ?)", USER, commodityId);
+    }
+
+    private static int countFavorite(String url, int commodityId) throws SQLException {
+        return TestApp.queryInt(url, "select count(*) from favorite_list where user_id = ? and commodity_id = ?",
+                USER, commodityId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Integer> favoriteList() throws Exception {
+        String token = SessionStore.me().create(USER);
+        Map<String, Object> envelope = TestApp.get("/user/favoriteList", "token", token, "limit", 200);
+        SessionStore.me().remove(token);
+        assertEquals(envelope.toString(), 0, ((Number) envelope.get("code")).intValue());
+        List<Integer> ids = new ArrayList<>();
+        for (Map<String, Object> row: (List<Map<String, Object>>) envelope.get("data")) {
+            ids.add(((Number) row.get("commodity_id")).intValue());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,35 @@
+package kit;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+public class IntHashSetTest {
+    private static final IntHashSet SET = IntHashSet.of(new int[]{0, 3, 7, 11}, 4);
+
+    @Test
+    public void withAllAddsEveryValue() {
+        assertArrayEquals(new int[]{0, 3, 5, 7, 11, 13}, sorted(SET.withAll(5, 3, 13, 5)));
+    }
+
+    @Test
+    public void withoutAllRemovesEveryValue() {
+        assertArrayEquals(new int[]{3, 11}, sorted(SET.withoutAll(0, 7, 9)));
+    }
+
+    @Test
+    public void unchangedSetsAreReturnedAsIs() {
+        assertSame(SET, SET.withAll(0, 3, 3));
+        assertSame(SET, SET.withoutAll(1, 2));
+        assertSame(SET, SET.withAll());
+    }
+
+    private static int[] sorted(IntHashSet set) {
+        int[] values = set.toArray();
+        Arrays.sort(values);
+        return values;
+    }
+}
@@ -0,0 +1,93 @@
+package plugins;
+
+import models.Commodity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest {
+
+    private static Commodity row(int id, String name, String brandName, String brandDesc) {
+        return new Commodity()
+                .put("commodity_id", id)
+                .put("commodity_name", name)
+                .put("brand_name", brandName)
+                .put("brand_desc", brandDesc);
+    }
+
+    private static List<Integer> ids(List<Commodity> rows) {
+        List<Integer> ids = new ArrayList<>(rows.size());
+        for (Commodity row: rows) {
+            ids.add(((Number) row.get("commodity_id")).intValue());
+        }
+        return ids;
+    }
+
+    @Test
+    public void ranksNameOverBrandAndWholeTermsOverPrefixes() {
+        SearchIndex index = SearchIndex.EMPTY.update(Arrays.asList(
+                row(5, "Rouge Lipstick", "Maison", "lip colour"),
+                row(3, "Lip Balm", "Maison", "care"),
+                row(9, "Velvet Matte", "Lip House", "matte"),
+                row(7, "Lipstick Duo", "Maison", "lip")));
+
+        assertEquals(Arrays.asList(3, 5, 7, 9), ids(index.search("lip", 10)));
+        assertEquals(Arrays.asList(5, 7), ids(index.search("maison lipst", 10)));
+        assertEquals(Arrays.asList(3, 5), ids(index.search("LIP", 2)));
+        assertTrue(index.search("lipgloss", 10).isEmpty());
+        assertTrue(index.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    public void sparseIdsKeepOneSlotPerCommodity() {
+        SearchIndex index = SearchIndex.EMPTY.update(Arrays.asList(
+                row(Integer.MAX_VALUE - 1, "口红 red", "A", null),
+                row(2, "red", "B", null),
+                row(1_000_000, "口红", "C", null)));
+
+        assertEquals(Arrays.asList(2, Integer.MAX_VALUE - 1), ids(index.search("red", 10)));
+        assertEquals(Arrays.asList(1_000_000, Integer.MAX_VALUE - 1), ids(index.search("口", 10)));
+    }
+
+    @Test
+    public void updateMatchesAFreshBuild() {
+        String[] words = {"rouge", "lip", "lipstick", "matte", "velvet", "glow", "balm", "silk", "rose", "ruby"};
+        String[] queries = {"r", "ro", "lip", "lipstick matte", "glow r", "silk", "s", "ruby rose", "v", "m l"};
+        Random random = new Random(42);
+        List<Commodity> rows = new ArrayList<>();
+        SearchIndex index = SearchIndex.EMPTY;
+        int nextId = 1;
+        for (int round = 0; round < 30; round++) {
+            List<Commodity> next = new ArrayList<>();
+            for (Commodity row: rows) {
+                int dice = random.nextInt(10);
+                if (dice == 0) {
+                    continue;
+                }
+                next.add(dice == 1 ? row(((Number) row.get("commodity_id")).intValue(),
+                        words[random.nextInt(words.length)], row.getStr("brand_name"), row.getStr("brand_desc")) : row);
+            }
+            for (int k = random.nextInt(20); k > 0; k--) {
+                // every other round reuses a gap below the last id, which moves the slots
+                int id = round % 2 == 0 ? nextId++ : random.nextInt(nextId) + 1;
+                if (!ids(next).contains(id)) {
+                    next.add(row(id, words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)],
+                            words[random.nextInt(words.length)], words[random.nextInt(words.length)]));
+                }
+            }
+            rows = next;
+            index = index.update(rows);
+            SearchIndex fresh = SearchIndex.EMPTY.update(rows);
+            for (String query: queries) {
+                assertEquals(query, ids(fresh.search(query, 1000)), ids(index.search(query, 1000)));
+                assertEquals(query, ids(fresh.search(query, 5)), ids(index.search(query, 5)));
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package plugins;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SessionStoreTest {
+    @Test
+    public void removeOthersKeepsTheCurrentSessionAndOtherUsers() {
+        SessionStore store = new SessionStore(100, 3600);
+        String current = store.create(1);
+        String other = store.create(1);
+        String stolen = store.create(1);
+        String otherUser = store.create(2);
+
+        assertEquals(2, store.removeOthers(1, current));
+        assertEquals(Integer.valueOf(1), store.getUserId(current));
+        assertNull(store.getUserId(other));
+        assertNull(store.getUserId(stolen));
+        assertEquals(Integer.valueOf(2), store.getUserId(otherUser));
+    }
+}